@@ -0,0 +1,9 @@
+package de.hybris.platform.converters;
+
+/**
+ * Stand-in for the hybris interface, only the signature the agent matches on.
+ */
+public interface Populator<SOURCE, TARGET> {
+
+    void populate(SOURCE source, TARGET target);
+}
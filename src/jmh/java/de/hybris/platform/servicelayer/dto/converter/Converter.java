@@ -0,0 +1,11 @@
+package de.hybris.platform.servicelayer.dto.converter;
+
+/**
+ * Stand-in for the hybris interface, only the signature the agent matches on.
+ */
+public interface Converter<SOURCE, TARGET> {
+
+    TARGET convert(SOURCE source);
+
+    TARGET convert(SOURCE source, TARGET prototype);
+}
@@ -0,0 +1,55 @@
+package net.populatorscanner.agent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call cost of resolving the call source of an intercepted call sitting {@code stackDepth} frames deep, comparing the
+ * original full stack trace capture with the lazy {@link StackWalker} capture.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallSourceCaptureBenchmark {
+
+    @Param({"10", "150"})
+    public int stackDepth;
+
+    @Benchmark
+    public int stackTrace() {
+        return descend(stackDepth, CallSourceCapture.Mode.STACK_TRACE);
+    }
+
+    @Benchmark
+    public int stackWalker() {
+        return descend(stackDepth, CallSourceCapture.Mode.STACK_WALKER);
+    }
+
+    private static int descend(int depth, CallSourceCapture.Mode mode) {
+        if (depth > 0) {
+            return descend(depth - 1, mode);
+        }
+        return StubConverter.convert(mode);
+    }
+
+    static final class StubConverter {
+
+        static int convert(CallSourceCapture.Mode mode) {
+            // stands in for the advice inlined into an instrumented convert/populate method
+            return CallSourceCapture.capture(mode, StubConverter.class.getName());
+        }
+    }
+}
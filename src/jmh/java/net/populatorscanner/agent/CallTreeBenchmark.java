@@ -0,0 +1,77 @@
+package net.populatorscanner.agent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the individual pieces of call tracking on synthetic trees: the advice of a single nested call, comparing two
+ * identical subtrees and rendering a tree to its log string.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dpopulatorscanner.output=aggregate")
+public class CallTreeBenchmark {
+
+    @Param({"3", "5"})
+    public int depth;
+
+    @Param({"3"})
+    public int fanOut;
+
+    @Param({"1", "4"})
+    public int duplication;
+
+    private ConverterCallNode tree;
+    private ConverterCallNode identicalTree;
+
+    private final Object[] arguments = {new Object()};
+    private final Object converter = new Object();
+    private final int rootClassId = SymbolTable.intern("RootConverter");
+    private final int childClassId = SymbolTable.intern("ChildPopulator");
+    private Agent.WorkContext rootContext;
+
+    @Setup
+    public void setUp() throws Exception {
+        tree = SyntheticConverterTree.callNodes(depth, fanOut, duplication);
+        identicalTree = SyntheticConverterTree.callNodes(depth, fanOut, duplication);
+
+        // keep a root call open, so every benchmark invocation is a nested call
+        rootContext = Agent.ConverterCallsInterceptor.pre(arguments, converter, "RootConverter", "convert", rootClassId, 0L);
+    }
+
+    @Benchmark
+    public Agent.WorkContext prePost() throws Exception {
+        // the advice local carrying the latency start only exists in the instrumented method, start it the same way here
+        long latencyStartNanos = ClassLatencyHistograms.start();
+        Agent.WorkContext ctx = Agent.ConverterCallsInterceptor.pre(arguments, converter, "ChildPopulator", "populate", childClassId, latencyStartNanos);
+        Agent.ConverterCallsInterceptor.post(arguments, ctx, latencyStartNanos, childClassId);
+        // don't let the open root call grow without bounds, nor run into the TreeBudget and measure truncated calls instead
+        ctx.lastRootCall.childCalls.clear();
+        ctx.rootNodes = 1;
+        return ctx;
+    }
+
+    @Benchmark
+    public boolean deepEquals() {
+        return tree.deepEquals(identicalTree);
+    }
+
+    @Benchmark
+    public String renderTree() {
+        return tree.renderTree();
+    }
+}
@@ -0,0 +1,136 @@
+package net.populatorscanner.agent;
+
+import de.hybris.platform.servicelayer.dto.converter.Converter;
+import net.bytebuddy.description.type.TypeDefinition;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.dynamic.ClassFileLocator;
+import net.bytebuddy.pool.TypePool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching cost of a batch of types as a start sees them: mostly JDK and library types, a few application classes,
+ * converters and populators, some of them inheriting the interface from an abstract base class. Like the agent builder, the
+ * types are described lazily by a {@link TypePool} from their class-file bytes, and every type is matched once.
+ * <p>
+ * Every invocation gets a fresh pool and a fresh class loader, so neither parsed class files nor the supertype cache of
+ * {@link ConverterTypeMatcher} survive from one invocation to the next; each one measures a cold start of the batch. This is
+ * the matching part of startup only, the install time of {@code premain} on a real application is not measured here.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 100)
+@Fork(1)
+public class ClassMatchingBenchmark {
+
+    private static final Class<?>[] LOADED_TYPES = {
+            String.class, java.util.HashMap.class, java.util.concurrent.ConcurrentHashMap.class, java.util.ArrayList.class,
+            java.io.BufferedReader.class, java.net.URLClassLoader.class, java.lang.reflect.Method.class, java.time.Instant.class,
+            java.util.stream.Collectors.class, java.util.logging.Logger.class, javax.management.ObjectName.class,
+            TypeDescription.ForLoadedType.class, TypePool.Default.class, ClassFileLocator.ForClassLoader.class,
+            AgentConfig.class, ConverterCallNode.class, SymbolTable.class, TreeBudget.class, ClassMatchingBenchmark.class,
+            SyntheticConverterTree.class, SyntheticConverterTree.Source.class, SyntheticConverterTree.Target.class,
+            SyntheticConverterTree.SyntheticConverter.class, SyntheticConverterTree.SyntheticPopulator.class,
+            AbstractInheritedConverter.class, FirstInheritedConverter.class, SecondInheritedConverter.class,
+            ThirdInheritedConverter.class
+    };
+
+    abstract static class AbstractInheritedConverter implements Converter<SyntheticConverterTree.Source, SyntheticConverterTree.Target> {
+
+        @Override
+        public SyntheticConverterTree.Target convert(SyntheticConverterTree.Source source) {
+            return convert(source, new SyntheticConverterTree.Target());
+        }
+    }
+
+    static final class FirstInheritedConverter extends AbstractInheritedConverter {
+
+        @Override
+        public SyntheticConverterTree.Target convert(SyntheticConverterTree.Source source, SyntheticConverterTree.Target prototype) {
+            return prototype;
+        }
+    }
+
+    static final class SecondInheritedConverter extends AbstractInheritedConverter {
+
+        @Override
+        public SyntheticConverterTree.Target convert(SyntheticConverterTree.Source source, SyntheticConverterTree.Target prototype) {
+            return prototype;
+        }
+    }
+
+    static final class ThirdInheritedConverter extends AbstractInheritedConverter {
+
+        @Override
+        public SyntheticConverterTree.Target convert(SyntheticConverterTree.Source source, SyntheticConverterTree.Target prototype) {
+            return prototype;
+        }
+    }
+
+    private final Map<String, byte[]> classFiles = new HashMap<>();
+
+    private ClassLoader classLoader;
+    private TypePool typePool;
+    private ConverterTypeMatcher matcher;
+
+    @Setup(Level.Trial)
+    public void readClassFiles() throws IOException {
+        for (Class<?> type : LOADED_TYPES) {
+            classFiles.put(type.getName(), ClassFileLocator.ForClassLoader.read(type));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        // the supertype cache is per class loader, a new loader starts with an empty one
+        classLoader = new URLClassLoader(new URL[0], ClassMatchingBenchmark.class.getClassLoader());
+        typePool = TypePool.Default.WithLazyResolution.of(new ClassFileLocator.Compound(
+                new ClassFileLocator.Simple(classFiles), ClassFileLocator.ForClassLoader.of(classLoader)));
+        matcher = new ConverterTypeMatcher();
+    }
+
+    /**
+     * The former matcher: direct interfaces only, for every type.
+     */
+    @Benchmark
+    public int directInterfaces() {
+        int matched = 0;
+        for (Class<?> type : LOADED_TYPES) {
+            TypeDescription typeDescription = typePool.describe(type.getName()).resolve();
+            if (typeDescription.getInterfaces().stream().map(TypeDefinition::getTypeName).anyMatch(Agent.CLASS_MATCH_PREDICATE)) {
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    @Benchmark
+    public int prefilteredWithSupertypeCache() {
+        int matched = 0;
+        for (Class<?> type : LOADED_TYPES) {
+            TypeDescription typeDescription = typePool.describe(type.getName()).resolve();
+            if (matcher.matches(typeDescription, classLoader, null, null, null)) {
+                matched++;
+            }
+        }
+        return matched;
+    }
+}
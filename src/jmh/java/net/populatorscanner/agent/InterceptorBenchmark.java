@@ -0,0 +1,62 @@
+package net.populatorscanner.agent;
+
+import net.bytebuddy.agent.ByteBuddyAgent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One root conversion over a {@link SyntheticConverterTree}, with and without the agent installed at runtime through Byte
+ * Buddy's agent installer. Each parameter combination runs in its own fork, so the synthetic classes are loaded after the
+ * agent and get instrumented. The difference between both is the {@code pre}/{@code post} overhead of the whole tree;
+ * {@code -prof gc} adds the bytes allocated per op.
+ * <p>
+ * The agent aggregates the trees instead of logging them, so the benchmark isn't dominated by console output.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterceptorBenchmark {
+
+    @Param({"false", "true"})
+    public boolean agent;
+
+    @Param({"3", "5"})
+    public int depth;
+
+    @Param({"3"})
+    public int fanOut;
+
+    @Param({"1", "4"})
+    public int duplication;
+
+    private SyntheticConverterTree.SyntheticConverter rootConverter;
+    private SyntheticConverterTree.Source source;
+
+    @Setup
+    public void setUp() throws Exception {
+        if (agent) {
+            Agent.premain("output=aggregate,aggregateDumpIntervalSeconds=0", ByteBuddyAgent.install());
+        }
+        rootConverter = SyntheticConverterTree.converters(depth, fanOut, duplication);
+        source = new SyntheticConverterTree.Source();
+    }
+
+    @Benchmark
+    public SyntheticConverterTree.Target convert() {
+        return rootConverter.convert(source);
+    }
+}
@@ -0,0 +1,44 @@
+package net.populatorscanner.agent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording a call into {@link ClassLatencyHistograms} when many request threads call the same few converters at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(16)
+public class LatencyHistogramBenchmark {
+
+    private final int[] classIds = {
+            SymbolTable.intern("ProductConverter"),
+            SymbolTable.intern("ProductBasicPopulator"),
+            SymbolTable.intern("ProductPricePopulator")
+    };
+
+    @Benchmark
+    public void record() {
+        int classId = classIds[(int) (Thread.currentThread().getId() % classIds.length)];
+        ClassLatencyHistograms.record(classId, ClassLatencyHistograms.start());
+    }
+
+    @Benchmark
+    public Object snapshot() {
+        return ClassLatencyHistograms.snapshot(classIds[0]);
+    }
+}
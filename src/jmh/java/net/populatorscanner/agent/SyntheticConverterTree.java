@@ -0,0 +1,107 @@
+package net.populatorscanner.agent;
+
+import de.hybris.platform.converters.Populator;
+import de.hybris.platform.servicelayer.dto.converter.Converter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converter/populator hierarchy of configurable shape: every converter runs {@code fanOut} populators, and every populator
+ * above the leaves converts its source with a nested converter {@code duplication} times in a row, producing repeated
+ * subtrees. Also builds the matching {@link ConverterCallNode} tree directly, without going through the agent.
+ */
+final class SyntheticConverterTree {
+
+    static final class Source {
+    }
+
+    static final class Target {
+        int populated;
+    }
+
+    static final class SyntheticConverter implements Converter<Source, Target> {
+
+        private final List<Populator<Source, Target>> populators = new ArrayList<>();
+
+        @Override
+        public Target convert(Source source) {
+            return convert(source, new Target());
+        }
+
+        @Override
+        public Target convert(Source source, Target prototype) {
+            for (Populator<Source, Target> populator : populators) {
+                populator.populate(source, prototype);
+            }
+            return prototype;
+        }
+    }
+
+    static final class SyntheticPopulator implements Populator<Source, Target> {
+
+        private final SyntheticConverter nestedConverter;
+        private final int duplication;
+
+        SyntheticPopulator(SyntheticConverter nestedConverter, int duplication) {
+            this.nestedConverter = nestedConverter;
+            this.duplication = duplication;
+        }
+
+        @Override
+        public void populate(Source source, Target target) {
+            target.populated++;
+            if (nestedConverter != null) {
+                for (int i = 0; i < duplication; i++) {
+                    target.populated += nestedConverter.convert(source).populated;
+                }
+            }
+        }
+    }
+
+    private SyntheticConverterTree() {
+    }
+
+    static SyntheticConverter converters(int depth, int fanOut, int duplication) {
+        SyntheticConverter converter = new SyntheticConverter();
+        for (int i = 0; i < fanOut; i++) {
+            SyntheticConverter nestedConverter = depth > 1 ? converters(depth - 1, fanOut, duplication) : null;
+            converter.populators.add(new SyntheticPopulator(nestedConverter, duplication));
+        }
+        return converter;
+    }
+
+    static ConverterCallNode callNodes(int depth, int fanOut, int duplication) {
+        ConverterCallNode root = callNode(null, 1);
+        addCallNodes(root, depth, fanOut, duplication);
+        complete(root);
+        return root;
+    }
+
+    private static void addCallNodes(ConverterCallNode converterCall, int depth, int fanOut, int duplication) {
+        for (int i = 0; i < fanOut; i++) {
+            ConverterCallNode populatorCall = callNode(converterCall, 2 + i);
+            if (depth > 1) {
+                for (int j = 0; j < duplication; j++) {
+                    addCallNodes(callNode(populatorCall, 1), depth - 1, fanOut, duplication);
+                }
+            }
+        }
+    }
+
+    private static ConverterCallNode callNode(ConverterCallNode parentCall, int classId) {
+        ConverterCallNode node = new ConverterCallNode(classId, classId, 0, 0);
+        if (parentCall != null) {
+            parentCall.childCalls.add(node);
+            node.parentCall = parentCall;
+        }
+        return node;
+    }
+
+    private static void complete(ConverterCallNode node) {
+        for (ConverterCallNode childCall : node.childCalls) {
+            complete(childCall);
+        }
+        node.complete(System.nanoTime());
+    }
+}
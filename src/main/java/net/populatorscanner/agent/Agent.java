@@ -1,31 +1,38 @@
 package net.populatorscanner.agent;
 
 import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.agent.builder.ResettableClassFileTransformer;
 import net.bytebuddy.asm.Advice;
-import net.bytebuddy.description.type.TypeDefinition;
 import net.bytebuddy.description.type.TypeDescription;
 import net.bytebuddy.dynamic.ClassFileLocator;
 import net.bytebuddy.dynamic.DynamicType;
 import net.bytebuddy.dynamic.loading.ClassInjector;
 import net.bytebuddy.matcher.ElementMatchers;
 import net.bytebuddy.utility.JavaModule;
-import net.populatorscanner.log.LogUtils;
+import net.populatorscanner.agent.async.AsyncPropagation;
+import net.populatorscanner.agent.jfr.JfrEvents;
+import net.populatorscanner.agent.jmx.Scanner;
+import net.populatorscanner.agent.ring.RingFileRecorder;
 
 import java.io.File;
 import java.lang.instrument.Instrumentation;
-import java.lang.reflect.ParameterizedType;
-import java.lang.reflect.Type;
 import java.nio.file.Files;
-import java.util.Collections;
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 
 import static net.populatorscanner.log.LogUtils.LOGGER;
 
 public class Agent {
 
-    public static final String CONVERTER_CLASS_PREFIX = "de.hybris.platform.servicelayer.dto.converter.Converter<";
-    public static final String POPULATOR_CLASS_PREFIX = "de.hybris.platform.converters.Populator<";
+    public static final String CONVERTER_CLASS_NAME = "de.hybris.platform.servicelayer.dto.converter.Converter";
+    public static final String POPULATOR_CLASS_NAME = "de.hybris.platform.converters.Populator";
+
+    public static final String CONVERTER_CLASS_PREFIX = CONVERTER_CLASS_NAME + "<";
+    public static final String POPULATOR_CLASS_PREFIX = POPULATOR_CLASS_NAME + "<";
 
     public static final String CONVERTER_METHOD_NAME = "convert";
     public static final String POPULATOR_METHOD_NAME = "populate";
@@ -33,155 +40,397 @@ public class Agent {
     public static final Predicate<String> CLASS_MATCH_PREDICATE =
             (typeName) -> typeName.startsWith(CONVERTER_CLASS_PREFIX) || typeName.startsWith(POPULATOR_CLASS_PREFIX);
 
+    public static final String DETACH_KEY = "detach";
+    public static final String RETRANSFORM_BATCH_SIZE_KEY = "retransformBatchSize";
+    public static final String RETRANSFORM_BATCH_PAUSE_MILLIS_KEY = "retransformBatchPauseMillis";
+
+    // read only once, when their class is initialized or their file is first opened
+    private static final String[] RESTART_ONLY_KEYS = {
+            CallSourceCapture.MODE_KEY, EntryPoints.METHODS_KEY, EntryPoints.ANNOTATIONS_KEY,
+            AsyncTreeRenderer.CAPACITY_KEY, AsyncTreeRenderer.OVERFLOW_POLICY_KEY,
+            AggregateProfile.MAX_PATHS_KEY, AggregateProfile.DUMP_INTERVAL_KEY,
+            FoldedStackExporter.FILE_KEY, FoldedStackExporter.WEIGHT_KEY,
+            RingFileRecorder.FILE_KEY, RingFileRecorder.SLOTS_KEY
+    };
+
+    private static Instrumentation instrumentation;
+    private static ResettableClassFileTransformer transformer;
+    private static boolean interceptorInjected;
+
+    /**
+     * Entry point on JVM start. The transformer is registered as retransformation capable here as well, otherwise the JVM keeps
+     * replaying its instrumented output on a retransformation and a later {@link #detach()} couldn't restore anything.
+     */
     public static void premain(String arg, Instrumentation inst) throws Exception {
+        AgentConfig.init(arg);
         LOGGER.info("Agent is loaded!");
+        install(inst, AgentBuilder.RedefinitionStrategy.RETRANSFORMATION);
+    }
+
+    /**
+     * Entry point when attaching to a running JVM. The converters and populators loaded so far are retransformed in batches of
+     * {@value #RETRANSFORM_BATCH_SIZE_KEY}, pausing {@value #RETRANSFORM_BATCH_PAUSE_MILLIS_KEY} between them, so a live node
+     * doesn't stall. Attaching again with {@value #DETACH_KEY} restores the original bytecode.
+     */
+    public static void agentmain(String arg, Instrumentation inst) throws Exception {
+        Map<String, String> arguments = AgentConfig.parse(arg);
+        if (Boolean.parseBoolean(arguments.get(DETACH_KEY))) {
+            // the live configuration stays as it is, a detach carries no settings
+            detach();
+            return;
+        }
+
+        boolean reattached = instrumentation != null;
+        AgentConfig.init(arg);
+        if (reattached) {
+            reconfigure(arguments);
+        }
+        LOGGER.info("Agent is attached!");
+        install(inst, AgentBuilder.RedefinitionStrategy.RETRANSFORMATION);
+    }
+
+    /**
+     * Applies the arguments of a later attach to the settings that can change at runtime, the ones the {@link Scanner} MBean
+     * controls as well; a key that is missing goes back to its default. The other settings were read only once and need a
+     * restart, they are only reported.
+     */
+    private static void reconfigure(Map<String, String> arguments) {
+        RootSampler.setEnabled(AgentConfig.getBoolean(RootSampler.ENABLED_KEY, true));
+        RootSampler.configure(AgentConfig.getInt(RootSampler.SAMPLE_EVERY_KEY, 1),
+                AgentConfig.getDouble(RootSampler.SAMPLE_PROBABILITY_KEY, 1.0),
+                AgentConfig.getInt(RootSampler.MAX_ROOTS_PER_SECOND_KEY, 0));
+        TreeBudget.configure(AgentConfig.getInt(TreeBudget.MAX_NODES_KEY, TreeBudget.DEFAULT_MAX_NODES),
+                AgentConfig.getInt(TreeBudget.MAX_DEPTH_KEY, TreeBudget.DEFAULT_MAX_DEPTH));
+        OutputMode.set(AgentConfig.getEnum(OutputMode.KEY, OutputMode.class, OutputMode.LOG));
+        AsyncTreeRenderer.setLogThresholdNanos(TimeUnit.MILLISECONDS.toNanos(AgentConfig.getInt(AsyncTreeRenderer.LOG_THRESHOLD_MILLIS_KEY, 0)));
+        AllocationTracker.setEnabled(AgentConfig.getBoolean(AllocationTracker.KEY, false));
+        ClassLatencyHistograms.setEnabled(AgentConfig.getBoolean(ClassLatencyHistograms.KEY, true));
+        RedundantConversions.setEnabled(AgentConfig.getBoolean(RedundantConversions.KEY, false));
+        ScannerStats.setSelfTiming(AgentConfig.getBoolean(ScannerStats.SELF_TIMING_KEY, false));
+
+        List<String> restartKeys = new ArrayList<>();
+        for (String key : RESTART_ONLY_KEYS) {
+            if (arguments.containsKey(key)) {
+                restartKeys.add(key);
+            }
+        }
+        if (!restartKeys.isEmpty()) {
+            LOGGER.warn("Ignoring {} on attach, they only take effect on a restart", restartKeys);
+        }
+    }
+
+    private static synchronized void install(Instrumentation inst, AgentBuilder.RedefinitionStrategy redefinitionStrategy) throws Exception {
+        if (transformer != null) {
+            LOGGER.info("Agent is already installed");
+            return;
+        }
 
         File temp = Files.createTempDirectory("tmp").toFile();
-        ClassInjector.UsingInstrumentation.of(temp, ClassInjector.UsingInstrumentation.Target.BOOTSTRAP, inst).inject(Collections.singletonMap(
-                new TypeDescription.ForLoadedType(ConverterCallsInterceptor.class),
-                ClassFileLocator.ForClassLoader.read(ConverterCallsInterceptor.class)));
+        if (!interceptorInjected) {
+            // stays on the bootstrap class path after a detach, a second attach finds it there
+            Map<TypeDescription, byte[]> interceptors = new HashMap<>();
+            interceptors.put(new TypeDescription.ForLoadedType(ConverterCallsInterceptor.class),
+                    ClassFileLocator.ForClassLoader.read(ConverterCallsInterceptor.class));
+            interceptors.put(new TypeDescription.ForLoadedType(RequestScopeInterceptor.class),
+                    ClassFileLocator.ForClassLoader.read(RequestScopeInterceptor.class));
+            ClassInjector.UsingInstrumentation.of(temp, ClassInjector.UsingInstrumentation.Target.BOOTSTRAP, inst).inject(interceptors);
+            interceptorInjected = true;
+        }
 
-        new AgentBuilder.Default()
+        Scanner.register();
+
+        instrumentation = inst;
+        AgentBuilder.Identified.Extendable agentBuilder = new AgentBuilder.Default()
+                // the advice is inlined and adds no members, so every instrumented class can be retransformed back to its original
+                .disableClassFormatChanges()
+                .with(redefinitionStrategy)
+                .with(retransformBatchAllocator())
+                .with(AgentBuilder.RedefinitionStrategy.Listener.Pausing.of(
+                        AgentConfig.getInt(RETRANSFORM_BATCH_PAUSE_MILLIS_KEY, 0), TimeUnit.MILLISECONDS))
                 .ignore(ElementMatchers.nameStartsWith("net.bytebuddy."))
                 .with(new AgentBuilder.InjectionStrategy.UsingInstrumentation(inst, temp))
 //                .with(AgentBuilder.Listener.StreamWriting.toSystemError())
-                .type((typeDescription, classLoader, module, classBeingRedefined, protectionDomain) -> {
-                    return typeDescription.getInterfaces().stream().map(TypeDefinition::getTypeName).anyMatch(CLASS_MATCH_PREDICATE);
-                })
+                .type(new ConverterTypeMatcher())
                 .transform(new AgentBuilder.Transformer() {
                     @Override
                     public DynamicType.Builder<?> transform(DynamicType.Builder<?> builder, TypeDescription typeDescription, ClassLoader classLoader,
                                                             JavaModule module) {
-                        return builder.visit(Advice.to(ConverterCallsInterceptor.class).on(ElementMatchers.named(CONVERTER_METHOD_NAME)
+                        return builder.visit(Advice.withCustomMapping()
+                                .bind(InstrumentedClassId.class, SymbolTable.intern(typeDescription.getName()))
+                                .to(ConverterCallsInterceptor.class).on(ElementMatchers.named(CONVERTER_METHOD_NAME)
                                 .or(ElementMatchers.named(POPULATOR_METHOD_NAME))));
                     }
 
-                }).installOn(inst);
+                });
+        if (EntryPoints.isConfigured()) {
+            agentBuilder = agentBuilder
+                    .type(EntryPoints.typeMatcher())
+                    .transform((builder, typeDescription, classLoader, module) ->
+                            builder.visit(Advice.to(RequestScopeInterceptor.class).on(EntryPoints.methodMatcher())));
+        }
+        transformer = agentBuilder.installOn(inst);
+
+        if (AsyncPropagation.isEnabled()) {
+            AsyncPropagation.install(inst, temp);
+        }
     }
 
-    public static class WorkContext {
-        public static final ThreadLocal<ConverterCallNode> lastRootCallTl = new ThreadLocal<>();
+    /**
+     * Removes the transformer and retransforms every instrumented class back to its original bytecode. Calls that are running
+     * at that moment still finish through the advice, so their trees complete normally.
+     *
+     * @return whether the agent was installed
+     */
+    public static synchronized boolean detach() {
+        if (transformer == null) {
+            return false;
+        }
+
+        AsyncPropagation.detach(instrumentation);
+        boolean reset = transformer.reset(instrumentation, AgentBuilder.RedefinitionStrategy.RETRANSFORMATION, retransformBatchAllocator());
+        transformer = null;
+        LOGGER.info("Agent is detached!");
+        return reset;
+    }
 
-        public static final ThreadLocal<ConverterCallNode> lastSubtreeForMatching = new ThreadLocal<>();
-        public static final ThreadLocal<ConverterCallNode> skipUntilNode = new ThreadLocal<>();
-        public static final ThreadLocal<ConverterCallNode> prevLastRootCall = new ThreadLocal<>();
-        public static final ThreadLocal<Boolean> setSkipUntilNodeToNull = ThreadLocal.withInitial(() -> Boolean.FALSE);
+    private static AgentBuilder.RedefinitionStrategy.BatchAllocator retransformBatchAllocator() {
+        return AgentBuilder.RedefinitionStrategy.BatchAllocator.ForFixedSize.ofSize(AgentConfig.getInt(RETRANSFORM_BATCH_SIZE_KEY, 50));
+    }
+
+    /**
+     * Mutable tracking state of the current thread. It is fetched once per intercepted call in {@code pre} and handed to
+     * {@code post} as the enter value, so a call costs a single {@link ThreadLocal} lookup.
+     */
+    public static final class WorkContext {
+
+        private static final ThreadLocal<WorkContext> CURRENT = new ThreadLocal<>();
+
+        public ConverterCallNode lastRootCall;
+
+        // nesting depth inside a root call that was not sampled, nothing is tracked while it is above zero
+        public int unsampledDepth;
+        public int rootCallsSinceSample;
+
+        // size of the open root tree, and nesting depth inside a call past its budget that is only counted
+        public int rootNodes;
+        public int depth;
+        public int truncatedDepth;
+
+        // whether the open root tree measures allocated bytes, picked when it starts like the output mode
+        public boolean trackAllocations;
+
+        // open JFR invocation events of a root call tracked in OutputMode.JFR, kept untyped so jdk.jfr is only loaded when used
+        public int jfrDepth;
+        public Object[] jfrEvents;
+
+        // nesting depth of a root call recorded in OutputMode.RING_FILE
+        public int ringDepth;
+
+        // request opened by the outermost entry point method on this thread, null outside of one
+        public RequestScope scope;
+        public int scopeDepth;
+
+        // call of the thread that submitted the running task, root trees of this thread are handed over to it
+        public ConverterCallNode asyncParent;
+        // the running task was submitted inside a root call that was not sampled, its root calls aren't either
+        public boolean asyncUnsampled;
+
+        public static WorkContext current() {
+            WorkContext ctx = CURRENT.get();
+            if (ctx == null) {
+                ctx = new WorkContext();
+                CURRENT.set(ctx);
+            }
+            return ctx;
+        }
+
+        /**
+         * @return the context of the current thread, null if it has none yet; unlike {@link #current()} it never creates one
+         */
+        public static WorkContext peek() {
+            return CURRENT.get();
+        }
+
+        public static void remove() {
+            CURRENT.remove();
+        }
     }
 
     public static class ConverterCallsInterceptor {
 
 
         @Advice.OnMethodEnter
-        public static void pre(@Advice.AllArguments(readOnly = true) Object[] wraps, @Advice.This Object thiz) throws Exception {
-            ConverterCallNode.initClassLoaderIfNeeded(thiz.getClass().getClassLoader());
+        public static WorkContext pre(@Advice.AllArguments(readOnly = true) Object[] wraps, @Advice.This Object thiz,
+                                      @Advice.Origin("#t") String clazz, @Advice.Origin("#m") String methodName,
+                                      @InstrumentedClassId int classId,
+                                      @Advice.Local("latencyStartNanos") long latencyStartNanos) throws Exception {
+            latencyStartNanos = ClassLatencyHistograms.start();
+            long selfTimingStart = ScannerStats.preStart();
+            WorkContext ctx = WorkContext.current();
+            // what the agent allocates for this call must not count as self bytes of the open call
+            long agentAllocationStart = ctx.lastRootCall != null && ctx.trackAllocations ? AllocationTracker.currentThreadAllocatedBytes() : -1L;
+            if (ctx.scope != null) {
+                ctx.scope.enterConversion(classId);
+                if (wraps.length == 1 && RedundantConversions.isEnabled() && CONVERTER_METHOD_NAME.equals(methodName)) {
+                    RedundantConversions.check(ctx.scope, wraps[0], thiz, clazz, classId);
+                }
+            }
+            // the root calls of a task follow the sampling decision of the call that submitted it
+            if (ctx.unsampledDepth > 0 || (ctx.lastRootCall == null && ctx.jfrDepth == 0 && ctx.ringDepth == 0
+                    && (ctx.asyncUnsampled || (ctx.asyncParent == null && !RootSampler.sample(ctx))))) {
+                ctx.unsampledDepth++;
+                ScannerStats.preDone(selfTimingStart);
+                return ctx;
+            }
 
-            StackTraceElement[] stackTrace = new Exception().getStackTrace();
-            ConverterCallNode lastRootCall;
+            // the output mode is picked per root call, so a tree never mixes both ways of tracking
+            if (ctx.jfrDepth > 0 || (ctx.lastRootCall == null && ctx.ringDepth == 0 && OutputMode.current() == OutputMode.JFR)) {
+                JfrEvents.begin(ctx, clazz, classId, POPULATOR_METHOD_NAME.equals(methodName), wraps, thiz);
+                ScannerStats.preDone(selfTimingStart);
+                return ctx;
+            }
 
-            String sourceType = null;
-            String targetType = null;
-            if (wraps.length > 0) {
-                sourceType = wraps[0].getClass().getTypeName();
+            if (ctx.ringDepth > 0 || (ctx.lastRootCall == null && OutputMode.current() == OutputMode.RING_FILE)) {
+                RingFileRecorder.enter(ctx, classId, wraps, thiz);
+                ScannerStats.preDone(selfTimingStart);
+                return ctx;
             }
 
-            if (thiz != null) {
-                for (Type type : thiz.getClass().getGenericInterfaces()) {
-                    if (CLASS_MATCH_PREDICATE.test(type.getTypeName()) && type instanceof ParameterizedType) {
-                        targetType = ((ParameterizedType) type).getActualTypeArguments()[1].getTypeName();
-                    }
+            if (ctx.truncatedDepth > 0 || (ctx.lastRootCall != null && TreeBudget.exhausted(ctx))) {
+                ctx.truncatedDepth++;
+                ctx.lastRootCall.countTruncatedCall(classId);
+                if (agentAllocationStart >= 0L) {
+                    ctx.lastRootCall.childCallsAllocatedBytes += AllocationTracker.currentThreadAllocatedBytes() - agentAllocationStart;
                 }
+                ScannerStats.preDone(selfTimingStart);
+                return ctx;
             }
 
-            if (WorkContext.lastRootCallTl.get() == null) {
-                StackTraceElement callSource = LogUtils.getCallSource(stackTrace);
+            ConverterCallNode.initClassLoaderIfNeeded(thiz.getClass().getClassLoader());
+
+            int callSourceId = CallSourceCapture.capture(clazz);
+            ConverterCallNode lastRootCall;
+
+            ConverterMetadata metadata = ConverterMetadata.of(thiz.getClass());
+            int sourceTypeId = wraps.length > 0 && wraps[0] != null ? SymbolTable.ofClass(wraps[0].getClass()) : metadata.sourceTypeId;
+            int targetTypeId = metadata.targetTypeId;
+
+            if (ctx.lastRootCall == null) {
                 lastRootCall = new ConverterCallNode.Builder()
-                        .withClass(stackTrace[0].getClassName())
-                        .withCallSource(callSource != null ?
-                                callSource.getFileName() + ":" + callSource.getLineNumber()
-                                : null)
-                        .withSourceType(sourceType)
-                        .withTargetType(targetType)
+                        .withClass(classId)
+                        .withCallSource(callSourceId)
+                        .withSourceType(sourceTypeId)
+                        .withTargetType(targetTypeId)
                         .build();
 
-                WorkContext.lastRootCallTl.set(lastRootCall);
+                ctx.lastRootCall = lastRootCall;
+                ctx.rootNodes = 1;
+                ctx.depth = 1;
+                ctx.trackAllocations = AllocationTracker.isEnabled();
             } else {
-                lastRootCall = WorkContext.lastRootCallTl.get();
-                StackTraceElement callSource = LogUtils.getCallSource(stackTrace);
+                lastRootCall = ctx.lastRootCall;
                 ConverterCallNode node = new ConverterCallNode.Builder()
-                        .withClass(stackTrace[0].getClassName())
-                        .withCallSource(callSource != null ?
-                                callSource.getFileName() + ":" + callSource.getLineNumber()
-                                : null)
-                        .withSourceType(sourceType)
-                        .withTargetType(targetType)
+                        .withClass(classId)
+                        .withCallSource(callSourceId)
+                        .withSourceType(sourceTypeId)
+                        .withTargetType(targetTypeId)
                         .build();
                 lastRootCall.childCalls.add(node);
                 node.parentCall = lastRootCall;
-                WorkContext.lastRootCallTl.set(node);
+                ctx.lastRootCall = node;
+                ctx.rootNodes++;
+                ctx.depth++;
             }
 
-
-            if (WorkContext.prevLastRootCall.get() != null && WorkContext.prevLastRootCall.get().parentCall != WorkContext.lastRootCallTl.get().parentCall) {
-                if (WorkContext.skipUntilNode.get() == null) {
-                    WorkContext.lastSubtreeForMatching.set(WorkContext.prevLastRootCall.get());
-                }
-
-                if (WorkContext.setSkipUntilNodeToNull.get() || Objects.equals(WorkContext.prevLastRootCall.get(), WorkContext.skipUntilNode.get())) {
-                    WorkContext.skipUntilNode.set(null);
+            ScannerStats.nodeAllocated();
+            ScannerStats.preDone(selfTimingStart);
+            if (ctx.trackAllocations) {
+                long startAllocatedBytes = AllocationTracker.currentThreadAllocatedBytes();
+                if (agentAllocationStart >= 0L) {
+                    lastRootCall.childCallsAllocatedBytes += startAllocatedBytes - agentAllocationStart;
                 }
+                ctx.lastRootCall.startAllocatedBytes = startAllocatedBytes;
             }
+            ctx.lastRootCall.startNanos = System.nanoTime();
+            return ctx;
         }
 
-        @Advice.OnMethodExit
-        public static void post(@Advice.AllArguments(readOnly = true) Object[] wraps) throws Exception {
-            if (WorkContext.lastRootCallTl.get() != null) {
+        @Advice.OnMethodExit(onThrowable = Throwable.class)
+        public static void post(@Advice.AllArguments(readOnly = true) Object[] wraps, @Advice.Enter WorkContext ctx,
+                                @Advice.Local("latencyStartNanos") long latencyStartNanos, @InstrumentedClassId int classId) throws Exception {
+            ClassLatencyHistograms.record(classId, latencyStartNanos);
+            if (ctx.scope != null) {
+                ctx.scope.exitConversion();
+            }
 
-                ConverterCallNode lastRootCall = WorkContext.lastRootCallTl.get();
+            if (ctx.unsampledDepth > 0) {
+                ctx.unsampledDepth--;
+                return;
+            }
+
+            if (ctx.jfrDepth > 0) {
+                JfrEvents.end(ctx);
+                return;
+            }
+
+            if (ctx.ringDepth > 0) {
+                RingFileRecorder.exit(ctx);
+                return;
+            }
+
+            if (ctx.truncatedDepth > 0) {
+                ctx.truncatedDepth--;
+                return;
+            }
+
+            if (ctx.lastRootCall != null) {
+                long endNanos = System.nanoTime();
+                ConverterCallNode lastRootCall = ctx.lastRootCall;
+                long endAllocatedBytes = ctx.trackAllocations ? AllocationTracker.currentThreadAllocatedBytes() : lastRootCall.startAllocatedBytes;
+                long selfTimingStart = ScannerStats.postStart();
+
+                if (lastRootCall.asyncCaptured) {
+                    ScannerStats.asyncTreesAdopted(lastRootCall.adoptAsyncChildCalls(ctx));
+                }
+                lastRootCall.complete(endNanos, endAllocatedBytes);
+                ctx.depth--;
                 if (lastRootCall.parentCall != null) {
-                    WorkContext.lastRootCallTl.set(lastRootCall.parentCall);
-                    WorkContext.prevLastRootCall.set(lastRootCall);
-
-                    WorkContext.setSkipUntilNodeToNull.set(false);
-
-                    if (WorkContext.lastSubtreeForMatching.get() != null && !lastRootCall.equals(WorkContext.skipUntilNode.get())) {
-                        ConverterCallNode commonBeforeParent;
-                        if (lastRootCall.parentCall.childCalls.contains(WorkContext.lastSubtreeForMatching.get())) {
-                            commonBeforeParent = lastRootCall;
-                        } else {
-                            commonBeforeParent = lastRootCall.parentCall;
-                        }
-
-                        while (commonBeforeParent != null && !Objects.equals(WorkContext.lastSubtreeForMatching.get(), commonBeforeParent)) {
-                            commonBeforeParent = commonBeforeParent.parentCall;
-                        }
-
-                        // now if it exists, let's compare the trees
-                        if (commonBeforeParent != null) {
-                            boolean isDuplicate = WorkContext.lastSubtreeForMatching.get().deepEquals(commonBeforeParent);
-
-                            if (isDuplicate) {
-                                WorkContext.lastSubtreeForMatching.get().iterations += 1;
-                                if (WorkContext.lastSubtreeForMatching.get().equals(lastRootCall)) {
-                                    WorkContext.skipUntilNode.set(commonBeforeParent.parentCall);
-                                } else {
-                                    WorkContext.skipUntilNode.set(commonBeforeParent);
-                                }
-                                commonBeforeParent.isDuplicate = true;
-                            } else if (WorkContext.prevLastRootCall.get().parentCall != lastRootCall.parentCall) {
-                                WorkContext.lastSubtreeForMatching.set(null);
-                                WorkContext.skipUntilNode.set(null);
-                            }
-                        } else {
-                            WorkContext.setSkipUntilNodeToNull.set(true);
-                                WorkContext.lastSubtreeForMatching.set(lastRootCall);
-                        }
+                    ctx.lastRootCall = lastRootCall.parentCall;
+                    ctx.rootNodes -= lastRootCall.foldIntoPreviousSibling();
+                    if (ctx.trackAllocations) {
+                        // the parent's window is open again, keep the agent's completion work out of its self bytes
+                        ctx.lastRootCall.childCallsAllocatedBytes += AllocationTracker.currentThreadAllocatedBytes() - endAllocatedBytes;
                     }
-
                 } else {
-                    WorkContext.lastRootCallTl.set(null);
-                    lastRootCall.logRecursively();
+                    ctx.lastRootCall = null;
+                    ScannerStats.rootTreeCompleted();
+                    if (ctx.asyncParent == null) {
+                        AsyncTreeRenderer.submit(lastRootCall);
+                    } else if (!ctx.asyncParent.offerAsyncChildCall(lastRootCall)) {
+                        ScannerStats.asyncTreeOutlivedParent();
+                        AsyncTreeRenderer.submit(lastRootCall);
+                    }
                 }
+                ScannerStats.postDone(selfTimingStart);
             }
         }
     }
+
+    /**
+     * Advice of the {@link EntryPoints} methods, opening and closing the {@link RequestScope} of the current thread.
+     */
+    public static class RequestScopeInterceptor {
+
+        @Advice.OnMethodEnter
+        public static WorkContext enter(@Advice.Origin("#t.#m") String endpoint) {
+            WorkContext ctx = WorkContext.current();
+            RequestScope.open(ctx, endpoint);
+            return ctx;
+        }
+
+        @Advice.OnMethodExit(onThrowable = Throwable.class)
+        public static void exit(@Advice.Enter WorkContext ctx) {
+            RequestScope.close(ctx);
+        }
+    }
 }
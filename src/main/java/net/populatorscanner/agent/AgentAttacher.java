@@ -0,0 +1,33 @@
+package net.populatorscanner.agent;
+
+import com.sun.tools.attach.VirtualMachine;
+
+import java.io.File;
+
+/**
+ * Attaches the agent jar to a running JVM, e.g. a live hybris node:
+ * <pre>
+ * java -cp populator-scanner.jar net.populatorscanner.agent.AgentAttacher &lt;pid&gt; [agent arguments]
+ * java -cp populator-scanner.jar net.populatorscanner.agent.AgentAttacher &lt;pid&gt; detach
+ * </pre>
+ */
+public final class AgentAttacher {
+
+    private AgentAttacher() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: AgentAttacher <pid> [agent arguments]");
+            System.exit(1);
+        }
+
+        String agentJar = new File(AgentAttacher.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+        VirtualMachine vm = VirtualMachine.attach(args[0]);
+        try {
+            vm.loadAgent(agentJar, args.length > 1 ? args[1] : null);
+        } finally {
+            vm.detach();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package net.populatorscanner.agent;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Agent settings, given as comma separated {@code key=value} pairs in the agent arguments, e.g.
+ * {@code -javaagent:populator-scanner.jar=sampleEvery=100,maxRootsPerSecond=20}.
+ * <p>
+ * A key missing from the agent arguments falls back to the {@code populatorscanner.<key>} system property and then to the
+ * caller's default.
+ */
+public final class AgentConfig {
+
+    public static final String SYSTEM_PROPERTY_PREFIX = "populatorscanner.";
+
+    private static volatile Map<String, String> arguments = Collections.emptyMap();
+
+    private AgentConfig() {
+    }
+
+    public static void init(String agentArguments) {
+        arguments = parse(agentArguments);
+    }
+
+    static Map<String, String> parse(String agentArguments) {
+        if (agentArguments == null || agentArguments.trim().isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, String> parsed = new HashMap<>();
+        for (String argument : agentArguments.split(",")) {
+            int separator = argument.indexOf('=');
+            if (separator > 0) {
+                parsed.put(argument.substring(0, separator).trim(), argument.substring(separator + 1).trim());
+            } else if (!argument.trim().isEmpty()) {
+                parsed.put(argument.trim(), "true");
+            }
+        }
+        return parsed;
+    }
+
+    public static String getString(String key, String defaultValue) {
+        String value = arguments.get(key);
+        if (value == null) {
+            value = System.getProperty(SYSTEM_PROPERTY_PREFIX + key);
+        }
+        return value != null ? value : defaultValue;
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    public static double getDouble(String key, double defaultValue) {
+        String value = getString(key, null);
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+
+    public static <E extends Enum<E>> E getEnum(String key, Class<E> type, E defaultValue) {
+        String value = getString(key, null);
+        return value != null ? Enum.valueOf(type, value.toUpperCase(Locale.ROOT)) : defaultValue;
+    }
+}
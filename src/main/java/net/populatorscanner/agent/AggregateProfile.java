@@ -0,0 +1,246 @@
+package net.populatorscanner.agent;
+
+import net.populatorscanner.log.AgentLoggerFacade;
+import net.populatorscanner.log.LogUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static net.populatorscanner.log.LogUtils.LOGGER;
+
+/**
+ * Global call tree profile all completed root trees are merged into, keyed by the path of calls (class, call source, source and
+ * target type) from the root down. Memory grows with the number of distinct call paths only; once
+ * {@value #MAX_PATHS_KEY} paths exist, calls on new paths are just counted as dropped.
+ * <p>
+ * The profile is logged every {@value #DUMP_INTERVAL_KEY} seconds (0 disables it) or on demand through {@link #dump()}.
+ */
+public final class AggregateProfile {
+
+    public static final String MAX_PATHS_KEY = "aggregateMaxPaths";
+    public static final String DUMP_INTERVAL_KEY = "aggregateDumpIntervalSeconds";
+
+    public static final int DEFAULT_MAX_PATHS = 100_000;
+    public static final int DEFAULT_DUMP_INTERVAL_SECONDS = 60;
+
+    private static final int MAX_PATHS = AgentConfig.getInt(MAX_PATHS_KEY, DEFAULT_MAX_PATHS);
+
+    private static final ConcurrentHashMap<PathKey, PathNode> roots = new ConcurrentHashMap<>();
+    private static final AtomicInteger paths = new AtomicInteger();
+    private static final LongAdder droppedInvocations = new LongAdder();
+    private static final LongAdder mergedTrees = new LongAdder();
+    private static final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private AggregateProfile() {
+    }
+
+    /**
+     * Aggregated calls of one call path.
+     */
+    public static final class PathNode {
+
+        public final PathKey key;
+        // calls including the repeats folded into a tree node
+        public final LongAdder invocations = new LongAdder();
+        // sum of the iteration counters of the merged tree nodes
+        public final LongAdder iterations = new LongAdder();
+        public final LongAdder totalNanos = new LongAdder();
+        public final LongAdder selfNanos = new LongAdder();
+        // calls below this path past the TreeBudget, which have no paths of their own
+        public final LongAdder truncatedCalls = new LongAdder();
+        public final ConcurrentHashMap<PathKey, PathNode> children = new ConcurrentHashMap<>();
+
+        private PathNode(PathKey key) {
+            this.key = key;
+        }
+    }
+
+    public static final class PathKey {
+
+        public final int classId;
+        public final int callSourceId;
+        public final int sourceTypeId;
+        public final int targetTypeId;
+
+        private PathKey(ConverterCallNode node) {
+            this.classId = node.classId;
+            this.callSourceId = node.callSourceId;
+            this.sourceTypeId = node.sourceTypeId;
+            this.targetTypeId = node.targetTypeId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            PathKey key = (PathKey) o;
+            return classId == key.classId && callSourceId == key.callSourceId && sourceTypeId == key.sourceTypeId && targetTypeId == key.targetTypeId;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (31 * classId + callSourceId) + sourceTypeId) + targetTypeId;
+        }
+
+        @Override
+        public String toString() {
+            return ConverterCallNode.describe(classId, callSourceId, sourceTypeId, targetTypeId);
+        }
+    }
+
+    /**
+     * Merges a completed root tree. The iterations of a folded subtree are multiplied into the invocations of the whole
+     * subtree, and the time of its repeats is already summed up on each of its nodes.
+     */
+    public static void merge(ConverterCallNode rootCall) {
+        scheduleDumpIfNeeded();
+        mergedTrees.increment();
+
+        Deque<PendingMerge> pending = new ArrayDeque<>();
+        pending.push(new PendingMerge(rootCall, roots, 1L));
+        while (!pending.isEmpty()) {
+            PendingMerge merge = pending.pop();
+            ConverterCallNode node = merge.node;
+            long invocations = merge.parentInvocations * node.iterations;
+
+            PathNode pathNode = pathNode(merge.siblings, new PathKey(node));
+            if (pathNode == null) {
+                droppedInvocations.add(invocations);
+                continue;
+            }
+            pathNode.invocations.add(invocations);
+            pathNode.iterations.add(node.iterations);
+            pathNode.truncatedCalls.add(invocations * node.truncatedCalls);
+            pathNode.totalNanos.add(node.cumulativeNanos());
+            pathNode.selfNanos.add(node.cumulativeSelfNanos());
+
+            for (ConverterCallNode childCall : node.childCalls) {
+                pending.push(new PendingMerge(childCall, pathNode.children, invocations));
+            }
+        }
+    }
+
+    private static final class PendingMerge {
+
+        private final ConverterCallNode node;
+        private final ConcurrentHashMap<PathKey, PathNode> siblings;
+        private final long parentInvocations;
+
+        private PendingMerge(ConverterCallNode node, ConcurrentHashMap<PathKey, PathNode> siblings, long parentInvocations) {
+            this.node = node;
+            this.siblings = siblings;
+            this.parentInvocations = parentInvocations;
+        }
+    }
+
+    private static PathNode pathNode(ConcurrentHashMap<PathKey, PathNode> siblings, PathKey key) {
+        PathNode pathNode = siblings.get(key);
+        if (pathNode != null) {
+            return pathNode;
+        }
+        if (paths.get() >= MAX_PATHS) {
+            return null;
+        }
+        return siblings.computeIfAbsent(key, k -> {
+            paths.incrementAndGet();
+            return new PathNode(k);
+        });
+    }
+
+    public static List<PathNode> roots() {
+        return new ArrayList<>(roots.values());
+    }
+
+    public static int paths() {
+        return paths.get();
+    }
+
+    public static long mergedTrees() {
+        return mergedTrees.sum();
+    }
+
+    public static long droppedInvocations() {
+        return droppedInvocations.sum();
+    }
+
+    public static void reset() {
+        roots.clear();
+        paths.set(0);
+        droppedInvocations.reset();
+        mergedTrees.reset();
+    }
+
+    public static String render() {
+        StringBuilder sb = new StringBuilder("\nConverter call profile: ").append(mergedTrees.sum()).append(" trees, ")
+                .append(paths.get()).append(" call paths, ").append(droppedInvocations.sum()).append(" calls on dropped paths\n");
+        List<PathNode> sortedRoots = sortedByInvocations(roots);
+        for (PathNode root : sortedRoots) {
+            render(root, 0, false, sb, "");
+        }
+        return sb.toString();
+    }
+
+    public static void dump() {
+        AgentLoggerFacade logger = ConverterCallNode.treeLogger();
+        if (logger.isInfoEnabled()) {
+            logger.info(render());
+        }
+    }
+
+    private static void render(PathNode node, int level, boolean last, StringBuilder sb, String interimSeparator) {
+        sb.append(interimSeparator);
+        if (level > 0) {
+            sb.append(last ? "└╴" : "├╴");
+            interimSeparator += last ? "  " : "│ ";
+        }
+        sb.append("[×").append(node.invocations.sum()).append(", iterations ").append(node.iterations.sum())
+                .append(", total ").append(LogUtils.formatNanos(node.totalNanos.sum()))
+                .append(", self ").append(LogUtils.formatNanos(node.selfNanos.sum()))
+                .append(node.truncatedCalls.sum() > 0 ? ", truncated " + node.truncatedCalls.sum() : "").append("] ")
+                .append(node.key).append('\n');
+
+        List<PathNode> children = sortedByInvocations(node.children);
+        for (int i = 0; i < children.size(); i++) {
+            render(children.get(i), level + 1, i == children.size() - 1, sb, interimSeparator);
+        }
+    }
+
+    private static List<PathNode> sortedByInvocations(ConcurrentHashMap<PathKey, PathNode> nodes) {
+        List<PathNode> sorted = new ArrayList<>(nodes.values());
+        sorted.sort(Comparator.comparingLong((PathNode node) -> node.invocations.sum()).reversed());
+        return sorted;
+    }
+
+    private static void scheduleDumpIfNeeded() {
+        if (scheduled.get() || !scheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        int interval = AgentConfig.getInt(DUMP_INTERVAL_KEY, DEFAULT_DUMP_INTERVAL_SECONDS);
+        if (interval > 0) {
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "populator-scanner-profile-dump");
+                thread.setDaemon(true);
+                thread.setContextClassLoader(null);
+                return thread;
+            });
+            executor.scheduleAtFixedRate(() -> {
+                try {
+                    dump();
+                } catch (RuntimeException | LinkageError e) {
+                    LOGGER.error("Couldn't dump the converter call profile: {}", e);
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+}
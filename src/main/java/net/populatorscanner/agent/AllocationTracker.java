@@ -0,0 +1,95 @@
+package net.populatorscanner.agent;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static net.populatorscanner.log.LogUtils.LOGGER;
+
+/**
+ * Reads the bytes the current thread has allocated so far, to attribute heap allocation to converter and populator calls.
+ * Off unless {@value #KEY} is set, and like the output mode it is picked per root call.
+ * <p>
+ * Where the JVM has {@code getCurrentThreadAllocatedBytes()} (Java 14+) that is used, it skips the thread lookup by id that
+ * {@code getThreadAllocatedBytes(long)} does on every read.
+ */
+public final class AllocationTracker {
+
+    public static final String KEY = "allocationTracking";
+
+    // resolved when tracking is first turned on, the thread MXBean isn't touched before
+    private static volatile MethodHandle allocatedBytesHandle;
+    private static volatile boolean enabled;
+
+    static {
+        setEnabled(AgentConfig.getBoolean(KEY, false));
+    }
+
+    private AllocationTracker() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return whether tracking is on now, it can't be turned on where the JVM doesn't measure allocated bytes per thread
+     */
+    public static synchronized boolean setEnabled(boolean enabled) {
+        if (enabled && allocatedBytesHandle == null) {
+            allocatedBytesHandle = resolveAllocatedBytesHandle();
+        }
+        AllocationTracker.enabled = enabled && allocatedBytesHandle != null;
+        return AllocationTracker.enabled;
+    }
+
+    public static long currentThreadAllocatedBytes() {
+        try {
+            return (long) allocatedBytesHandle.invokeExact();
+        } catch (Throwable e) {
+            disableAfterFailure(e);
+            return 0L;
+        }
+    }
+
+    /**
+     * Turns tracking off for the root calls to come, the ones that are open keep reading 0 without logging again.
+     */
+    private static synchronized void disableAfterFailure(Throwable e) {
+        if (enabled) {
+            enabled = false;
+            LOGGER.error("Couldn't read the allocated bytes of the current thread, allocation tracking is turned off: {}", e);
+        }
+    }
+
+    private static long threadAllocatedBytes(com.sun.management.ThreadMXBean threadMXBean) {
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static MethodHandle resolveAllocatedBytesHandle() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported()) {
+            LOGGER.warn("Allocated bytes per thread aren't measured by this JVM, allocation tracking is unavailable");
+            return null;
+        }
+
+        com.sun.management.ThreadMXBean allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        allocationMXBean.setThreadAllocatedMemoryEnabled(true);
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            return lookup.findVirtual(com.sun.management.ThreadMXBean.class, "getCurrentThreadAllocatedBytes",
+                    MethodType.methodType(long.class)).bindTo(allocationMXBean);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            try {
+                return lookup.findStatic(AllocationTracker.class, "threadAllocatedBytes",
+                        MethodType.methodType(long.class, com.sun.management.ThreadMXBean.class)).bindTo(allocationMXBean);
+            } catch (NoSuchMethodException | IllegalAccessException ex) {
+                LOGGER.error("Couldn't resolve the allocated bytes of the current thread, allocation tracking is unavailable: {}", ex);
+                return null;
+            }
+        }
+    }
+}
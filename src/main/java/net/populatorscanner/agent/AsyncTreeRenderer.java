@@ -0,0 +1,167 @@
+package net.populatorscanner.agent;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static net.populatorscanner.log.LogUtils.LOGGER;
+
+/**
+ * Renders and logs completed root trees on a background daemon thread, so the request thread that finished a root call only pays
+ * for the enqueue. Depending on the {@link OutputMode} the trees are merged into the {@link AggregateProfile} or exported as
+ * folded stacks there instead.
+ * <p>
+ * The queue is bounded by {@value #CAPACITY_KEY} (default {@value #DEFAULT_CAPACITY}). When it is full, the
+ * {@value #OVERFLOW_POLICY_KEY} policy decides whether the new tree is dropped, the oldest queued one is dropped, or the
+ * request thread waits for space.
+ * <p>
+ * In {@link OutputMode#LOG} mode, trees whose root call took less than {@value #LOG_THRESHOLD_MILLIS_KEY} are not queued at all,
+ * unless they measured allocated bytes for the {@link ClassAllocationProfile}. The profiles of the other modes always get every
+ * tree, so their counts and totals aren't biased towards slow roots.
+ */
+public final class AsyncTreeRenderer {
+
+    public static final String CAPACITY_KEY = "renderQueueCapacity";
+    public static final String OVERFLOW_POLICY_KEY = "renderQueueOverflowPolicy";
+    public static final String LOG_THRESHOLD_MILLIS_KEY = "logThresholdMillis";
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    public enum OverflowPolicy {
+        DROP_NEWEST,
+        DROP_OLDEST,
+        BLOCK
+    }
+
+    public static final OverflowPolicy OVERFLOW_POLICY =
+            AgentConfig.getEnum(OVERFLOW_POLICY_KEY, OverflowPolicy.class, OverflowPolicy.DROP_NEWEST);
+
+    private static final BlockingQueue<ConverterCallNode> queue =
+            new ArrayBlockingQueue<>(AgentConfig.getInt(CAPACITY_KEY, DEFAULT_CAPACITY));
+    private static final AtomicBoolean started = new AtomicBoolean();
+
+    private static volatile long logThresholdNanos = TimeUnit.MILLISECONDS.toNanos(AgentConfig.getInt(LOG_THRESHOLD_MILLIS_KEY, 0));
+
+    private static final LongAdder submittedTrees = new LongAdder();
+    private static final LongAdder droppedTrees = new LongAdder();
+    private static final LongAdder renderedTrees = new LongAdder();
+    private static final LongAdder treesBelowLogThreshold = new LongAdder();
+
+    private AsyncTreeRenderer() {
+    }
+
+    /**
+     * Hands a completed root tree over to the renderer thread. The caller must not touch the tree afterwards.
+     */
+    public static void submit(ConverterCallNode rootCall) {
+        if (rootCall.totalNanos < logThresholdNanos && rootCall.allocatedBytes == 0 && OutputMode.current() == OutputMode.LOG) {
+            treesBelowLogThreshold.increment();
+            return;
+        }
+
+        startIfNeeded();
+        submittedTrees.increment();
+
+        switch (OVERFLOW_POLICY) {
+            case DROP_NEWEST:
+                if (!queue.offer(rootCall)) {
+                    droppedTrees.increment();
+                }
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(rootCall)) {
+                    if (queue.poll() != null) {
+                        droppedTrees.increment();
+                    }
+                }
+                break;
+            case BLOCK:
+                try {
+                    queue.put(rootCall);
+                } catch (InterruptedException e) {
+                    droppedTrees.increment();
+                    Thread.currentThread().interrupt();
+                }
+                break;
+        }
+    }
+
+    public static long submittedTrees() {
+        return submittedTrees.sum();
+    }
+
+    public static long droppedTrees() {
+        return droppedTrees.sum();
+    }
+
+    public static long renderedTrees() {
+        return renderedTrees.sum();
+    }
+
+    public static long treesBelowLogThreshold() {
+        return treesBelowLogThreshold.sum();
+    }
+
+    public static void resetStatistics() {
+        submittedTrees.reset();
+        droppedTrees.reset();
+        renderedTrees.reset();
+        treesBelowLogThreshold.reset();
+    }
+
+    public static long logThresholdNanos() {
+        return logThresholdNanos;
+    }
+
+    public static void setLogThresholdNanos(long logThresholdNanos) {
+        AsyncTreeRenderer.logThresholdNanos = logThresholdNanos;
+    }
+
+    public static int queueDepth() {
+        return queue.size();
+    }
+
+    private static void startIfNeeded() {
+        if (!started.get() && started.compareAndSet(false, true)) {
+            Thread renderer = new Thread(AsyncTreeRenderer::drain, "populator-scanner-renderer");
+            renderer.setDaemon(true);
+            // don't pin the class loader of whichever web application happened to finish the first tree
+            renderer.setContextClassLoader(null);
+            renderer.start();
+        }
+    }
+
+    private static void drain() {
+        while (true) {
+            try {
+                ConverterCallNode rootCall = queue.take();
+                if (rootCall.allocatedBytes > 0) {
+                    ClassAllocationProfile.merge(rootCall);
+                }
+                switch (OutputMode.current()) {
+                    case AGGREGATE:
+                        AggregateProfile.merge(rootCall);
+                        break;
+                    case FOLDED_STACKS:
+                        FoldedStackExporter.export(rootCall);
+                        break;
+                    default:
+                        // a tree kept for its allocated bytes only
+                        if (rootCall.totalNanos >= logThresholdNanos) {
+                            rootCall.logRecursively();
+                        } else {
+                            treesBelowLogThreshold.increment();
+                        }
+                        break;
+                }
+                renderedTrees.increment();
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException | LinkageError e) {
+                LOGGER.error("Couldn't render a converter call tree: {}", e);
+            }
+        }
+    }
+}
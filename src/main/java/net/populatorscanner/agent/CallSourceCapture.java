@@ -0,0 +1,115 @@
+package net.populatorscanner.agent;
+
+import net.populatorscanner.log.LogUtils;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the "File.java:line" call source of an intercepted converter/populator call, i.e. the first frame below the
+ * instrumented class.
+ * <p>
+ * The default {@link Mode#STACK_WALKER} mode walks the stack lazily and stops at the first frame that is not part of the agent
+ * or the instrumented class, so only a handful of frames are materialized no matter how deep the container stack is. The
+ * resolved location is interned in the {@link SymbolTable} and its id is cached per call site (declaring class, method and
+ * bytecode index), which skips the line number table lookup and the string building for every repeated call.
+ * {@link Mode#STACK_TRACE} is the original full stack trace capture and is kept for comparison.
+ */
+public final class CallSourceCapture {
+
+    public static final String MODE_KEY = "callSourceMode";
+
+    public enum Mode {
+        STACK_WALKER,
+        STACK_TRACE
+    }
+
+    public static final Mode MODE = AgentConfig.getEnum(MODE_KEY, Mode.class, Mode.STACK_WALKER);
+
+    private static final String AGENT_PACKAGE_PREFIX = "net.populatorscanner.";
+
+    private static final StackWalker STACK_WALKER = StackWalker.getInstance(
+            EnumSet.of(StackWalker.Option.RETAIN_CLASS_REFERENCE, StackWalker.Option.SHOW_REFLECT_FRAMES));
+
+    private static final ClassValue<Map<FrameKey, Integer>> CALL_SOURCES = new ClassValue<Map<FrameKey, Integer>>() {
+        @Override
+        protected Map<FrameKey, Integer> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private CallSourceCapture() {
+    }
+
+    public static int capture(String clazz) {
+        return capture(MODE, clazz);
+    }
+
+    /**
+     * @param clazz binary name of the instrumented class, its frames are skipped
+     * @return symbol id of "File.java:line" of the first caller outside {@code clazz}, or {@link SymbolTable#UNKNOWN} if there is none
+     */
+    public static int capture(Mode mode, String clazz) {
+        if (mode == Mode.STACK_TRACE) {
+            return captureFromStackTrace(clazz);
+        }
+
+        Optional<StackWalker.StackFrame> callSource = STACK_WALKER.walk(frames -> frames
+                .dropWhile(frame -> frame.getClassName().startsWith(AGENT_PACKAGE_PREFIX) && !frame.getClassName().equals(clazz))
+                .dropWhile(frame -> frame.getClassName().equals(clazz))
+                .findFirst());
+        return callSource.isPresent() ? resolve(callSource.get()) : SymbolTable.UNKNOWN;
+    }
+
+    private static int resolve(StackWalker.StackFrame frame) {
+        return CALL_SOURCES.get(frame.getDeclaringClass()).computeIfAbsent(
+                new FrameKey(frame.getMethodName(), frame.getDescriptor(), frame.getByteCodeIndex()),
+                key -> SymbolTable.intern(frame.getFileName() + ":" + frame.getLineNumber()));
+    }
+
+    private static int captureFromStackTrace(String clazz) {
+        StackTraceElement[] stackTrace = new Exception().getStackTrace();
+
+        int top = 0;
+        while (top < stackTrace.length && !stackTrace[top].getClassName().equals(clazz)) {
+            top++;
+        }
+        if (top == stackTrace.length) {
+            return SymbolTable.UNKNOWN;
+        }
+
+        StackTraceElement[] fromInstrumentedFrame = new StackTraceElement[stackTrace.length - top];
+        System.arraycopy(stackTrace, top, fromInstrumentedFrame, 0, fromInstrumentedFrame.length);
+
+        StackTraceElement callSource = LogUtils.getCallSource(fromInstrumentedFrame);
+        return callSource != null ? SymbolTable.intern(callSource.getFileName() + ":" + callSource.getLineNumber()) : SymbolTable.UNKNOWN;
+    }
+
+    private static final class FrameKey {
+
+        private final String methodName;
+        private final String descriptor;
+        private final int byteCodeIndex;
+
+        private FrameKey(String methodName, String descriptor, int byteCodeIndex) {
+            this.methodName = methodName;
+            this.descriptor = descriptor;
+            this.byteCodeIndex = byteCodeIndex;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            FrameKey frameKey = (FrameKey) o;
+            return byteCodeIndex == frameKey.byteCodeIndex && methodName.equals(frameKey.methodName) && descriptor.equals(frameKey.descriptor);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * methodName.hashCode() + descriptor.hashCode()) + byteCodeIndex;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package net.populatorscanner.agent;
+
+import net.populatorscanner.log.AgentLoggerFacade;
+import net.populatorscanner.log.LogUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Heap allocation of the root trees tracked with {@link AllocationTracker}, summed up per converter/populator class, to find
+ * the ones producing the most garbage. Total bytes include everything a call's children allocated, so for recursive
+ * converters they count nested calls more than once; self bytes never overlap.
+ */
+public final class ClassAllocationProfile {
+
+    private static final ConcurrentHashMap<Integer, ClassAllocation> classes = new ConcurrentHashMap<>();
+
+    private ClassAllocationProfile() {
+    }
+
+    public static final class ClassAllocation {
+
+        public final int classId;
+        public final LongAdder invocations = new LongAdder();
+        public final LongAdder selfBytes = new LongAdder();
+        public final LongAdder totalBytes = new LongAdder();
+
+        private ClassAllocation(int classId) {
+            this.classId = classId;
+        }
+    }
+
+    public static void merge(ConverterCallNode rootCall) {
+        Deque<ConverterCallNode> pending = new ArrayDeque<>();
+        Deque<Long> parentInvocations = new ArrayDeque<>();
+        pending.push(rootCall);
+        parentInvocations.push(1L);
+        while (!pending.isEmpty()) {
+            ConverterCallNode node = pending.pop();
+            long invocations = parentInvocations.pop() * node.iterations;
+
+            ClassAllocation allocation = classes.computeIfAbsent(node.classId, ClassAllocation::new);
+            allocation.invocations.add(invocations);
+            allocation.selfBytes.add(node.cumulativeSelfAllocatedBytes());
+            allocation.totalBytes.add(node.cumulativeAllocatedBytes());
+
+            for (ConverterCallNode childCall : node.childCalls) {
+                pending.push(childCall);
+                parentInvocations.push(invocations);
+            }
+        }
+    }
+
+    /**
+     * @return the classes by self allocated bytes, largest first
+     */
+    public static List<ClassAllocation> classes() {
+        List<ClassAllocation> sorted = new ArrayList<>(classes.values());
+        sorted.sort(Comparator.comparingLong((ClassAllocation allocation) -> allocation.selfBytes.sum()).reversed());
+        return sorted;
+    }
+
+    public static void reset() {
+        classes.clear();
+    }
+
+    public static String render() {
+        StringBuilder sb = new StringBuilder("\nConverter allocation profile:\n");
+        for (ClassAllocation allocation : classes()) {
+            long invocations = allocation.invocations.sum();
+            long selfBytes = allocation.selfBytes.sum();
+            sb.append("[self ").append(LogUtils.formatBytes(selfBytes))
+                    .append(", total ").append(LogUtils.formatBytes(allocation.totalBytes.sum()))
+                    .append(", ×").append(invocations)
+                    .append(", self per call ").append(LogUtils.formatBytes(invocations > 0 ? selfBytes / invocations : 0)).append("] ")
+                    .append(LogUtils.abbreviateClassName(SymbolTable.name(allocation.classId))).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public static void dump() {
+        AgentLoggerFacade logger = ConverterCallNode.treeLogger();
+        if (logger.isInfoEnabled()) {
+            logger.info(render());
+        }
+    }
+}
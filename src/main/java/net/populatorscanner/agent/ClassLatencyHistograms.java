@@ -0,0 +1,249 @@
+package net.populatorscanner.agent;
+
+import net.populatorscanner.log.AgentLoggerFacade;
+import net.populatorscanner.log.LogUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Flat latency statistics per converter/populator class next to the trees: invocations, total and max time, and a log bucketed
+ * histogram for percentiles. Recorded for every intercepted call, sampled or not, unless {@value #KEY} is turned off.
+ * <p>
+ * The time of a call includes its nested calls. Buckets have four linear steps per power of two, so a percentile is off by
+ * less than 25%, and are {@link LongAdder}s created on first use; a class only pays for the latencies it actually shows and
+ * concurrent request threads don't contend on a shared counter. Classes are looked up by their {@link SymbolTable} id in a
+ * plain array.
+ */
+public final class ClassLatencyHistograms {
+
+    public static final String KEY = "latencyHistograms";
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private static volatile boolean enabled = AgentConfig.getBoolean(KEY, true);
+
+    private static final Object lock = new Object();
+    private static volatile ClassLatency[] classes = new ClassLatency[1024];
+
+    private ClassLatencyHistograms() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        ClassLatencyHistograms.enabled = enabled;
+    }
+
+    /**
+     * @return the start to hand to {@link #record(int, long)}, 0 when the histograms are off
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    public static void record(int classId, long startNanos) {
+        if (startNanos != 0L) {
+            classLatency(classId).record(System.nanoTime() - startNanos);
+        }
+    }
+
+    static void recordNanos(int classId, long nanos) {
+        classLatency(classId).record(nanos);
+    }
+
+    private static ClassLatency classLatency(int classId) {
+        ClassLatency[] current = classes;
+        ClassLatency classLatency = classId < current.length ? current[classId] : null;
+        if (classLatency != null) {
+            return classLatency;
+        }
+
+        synchronized (lock) {
+            current = classes;
+            if (classId >= current.length) {
+                current = Arrays.copyOf(current, Math.max(current.length * 2, classId + 1));
+            }
+            if (current[classId] == null) {
+                current[classId] = new ClassLatency(classId);
+            }
+            classes = current;
+            return current[classId];
+        }
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(nanos, 0L);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    /**
+     * @return the largest latency that falls into {@code bucket}
+     */
+    static long bucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket >> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        long lowerBound = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << (exponent - SUB_BUCKET_BITS);
+        return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    private static final class ClassLatency {
+
+        private final int classId;
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+        private final AtomicReferenceArray<LongAdder> buckets = new AtomicReferenceArray<>(BUCKETS);
+
+        private ClassLatency(int classId) {
+            this.classId = classId;
+        }
+
+        private void record(long nanos) {
+            int index = bucket(nanos);
+            LongAdder bucket = buckets.get(index);
+            if (bucket == null) {
+                buckets.compareAndSet(index, null, new LongAdder());
+                bucket = buckets.get(index);
+            }
+            bucket.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        private Snapshot snapshot() {
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                LongAdder bucket = buckets.get(i);
+                counts[i] = bucket != null ? bucket.sum() : 0L;
+            }
+            return new Snapshot(classId, counts, totalNanos.sum(), maxNanos.get());
+        }
+    }
+
+    /**
+     * Latencies of one class at one point in time. The invocation count is the sum of the bucket counts, so it always agrees
+     * with the percentiles; total and max are read separately and may include a call or two more or less.
+     */
+    public static final class Snapshot {
+
+        public final int classId;
+        public final long invocations;
+        public final long totalNanos;
+        public final long maxNanos;
+        private final long[] bucketCounts;
+
+        private Snapshot(int classId, long[] bucketCounts, long totalNanos, long maxNanos) {
+            this.classId = classId;
+            this.bucketCounts = bucketCounts;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            long invocations = 0;
+            for (long count : bucketCounts) {
+                invocations += count;
+            }
+            this.invocations = invocations;
+        }
+
+        public String className() {
+            return SymbolTable.name(classId);
+        }
+
+        public long meanNanos() {
+            return invocations > 0 ? totalNanos / invocations : 0L;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the upper bound of the bucket the percentile falls into, at most the max
+         */
+        public long percentileNanos(double percentile) {
+            if (invocations == 0) {
+                return 0L;
+            }
+            long rank = Math.max((long) Math.ceil(invocations * percentile / 100.0), 1L);
+            long seen = 0;
+            for (int i = 0; i < bucketCounts.length; i++) {
+                seen += bucketCounts[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        public long p50Nanos() {
+            return percentileNanos(50);
+        }
+
+        public long p99Nanos() {
+            return percentileNanos(99);
+        }
+
+        public long p999Nanos() {
+            return percentileNanos(99.9);
+        }
+    }
+
+    public static Snapshot snapshot(int classId) {
+        ClassLatency[] current = classes;
+        ClassLatency classLatency = classId > SymbolTable.UNKNOWN && classId < current.length ? current[classId] : null;
+        return classLatency != null ? classLatency.snapshot() : null;
+    }
+
+    /**
+     * @return the classes that were called so far, by total time, largest first
+     */
+    public static List<Snapshot> snapshot() {
+        List<Snapshot> snapshots = new ArrayList<>();
+        for (ClassLatency classLatency : classes) {
+            if (classLatency != null) {
+                snapshots.add(classLatency.snapshot());
+            }
+        }
+        snapshots.sort(Comparator.comparingLong((Snapshot snapshot) -> snapshot.totalNanos).reversed());
+        return snapshots;
+    }
+
+    public static void reset() {
+        synchronized (lock) {
+            classes = new ClassLatency[classes.length];
+        }
+    }
+
+    public static String render() {
+        StringBuilder sb = new StringBuilder("\nConverter latency:\n");
+        for (Snapshot snapshot : snapshot()) {
+            sb.append("[×").append(snapshot.invocations)
+                    .append(", total ").append(LogUtils.formatNanos(snapshot.totalNanos))
+                    .append(", mean ").append(LogUtils.formatNanos(snapshot.meanNanos()))
+                    .append(", p50 ").append(LogUtils.formatNanos(snapshot.p50Nanos()))
+                    .append(", p99 ").append(LogUtils.formatNanos(snapshot.p99Nanos()))
+                    .append(", p99.9 ").append(LogUtils.formatNanos(snapshot.p999Nanos()))
+                    .append(", max ").append(LogUtils.formatNanos(snapshot.maxNanos)).append("] ")
+                    .append(LogUtils.abbreviateClassName(snapshot.className())).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public static void dump() {
+        AgentLoggerFacade logger = ConverterCallNode.treeLogger();
+        if (logger.isInfoEnabled()) {
+            logger.info(render());
+        }
+    }
+}
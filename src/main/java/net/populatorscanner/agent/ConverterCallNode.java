@@ -3,13 +3,26 @@ package net.populatorscanner.agent;
 import net.populatorscanner.log.AgentLoggerFacade;
 import net.populatorscanner.log.LogUtils;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
-import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.concurrent.locks.ReentrantLock;
 
 public final class ConverterCallNode {
 
+    private static final long CHILD_CALLS_SEED = 1L;
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    private static final long TRUNCATED_CALLS_MULTIPLIER = 0xC2B2AE3D27D4EB4FL;
+    private static final long ITERATIONS_MULTIPLIER = 0x165667B19E3779F9L;
+    private static final long ASYNC_MULTIPLIER = 0x27D4EB2F165667C5L;
+
+    private static final AtomicReferenceFieldUpdater<ConverterCallNode, AsyncChildCall> ASYNC_CHILD_CALLS =
+            AtomicReferenceFieldUpdater.newUpdater(ConverterCallNode.class, AsyncChildCall.class, "asyncChildCalls");
+    private static final AsyncChildCall ADOPTED = new AsyncChildCall(null, null);
+
     private static final ReentrantLock loggerInitLock = new ReentrantLock();
     public static volatile AgentLoggerFacade logger = null;
     public static volatile ClassLoader appClassLoader = null;
@@ -20,20 +33,51 @@ public final class ConverterCallNode {
         }
     }
 
-    public String clazz;
-    public String callSource; // source code file name + line number
-    public String sourceType;
-    public String targetType;
-    public int iterations = 1;
-    public boolean isDuplicate = false;
+    // SymbolTable ids, names are only resolved when the tree is rendered
+    public int classId;
+    public int callSourceId; // source code file name + line number
+    public int sourceTypeId;
+    public int targetTypeId;
+    public int iterations = 1; // identical sibling subtrees in a row, folded into this one as they completed
     public List<ConverterCallNode> childCalls = new ArrayList<>();
     public ConverterCallNode parentCall;
 
-    public ConverterCallNode(String clazz, String callSource, String sourceType, String targetType) {
-        this.clazz = clazz;
-        this.callSource = callSource;
-        this.sourceType = sourceType;
-        this.targetType = targetType;
+    // structural (Merkle) hash: own identity combined with the hashes of all children, in order
+    public boolean completed = false;
+    public long childCallsHash = CHILD_CALLS_SEED; // folded hashes and iterations of the completed children
+    public long structuralHash; // final once completed
+    public long precedingSiblingsHash; // parent's childCallsHash before this call was folded in
+
+    // wall-clock timing, System.nanoTime based
+    public long startNanos;
+    public long totalNanos;
+    public long childCallsNanos; // total time of all child calls, repeated ones included
+    public long repeatedNanos; // total time of the repeats folded into this node or into one of its ancestors
+    public long repeatedSelfNanos; // self time of the repeats folded into this node
+
+    // heap allocation of the calling thread, only measured in root trees tracked with AllocationTracker
+    public long startAllocatedBytes;
+    public long allocatedBytes;
+    public long childCallsAllocatedBytes;
+    public long repeatedAllocatedBytes;
+    public long repeatedSelfAllocatedBytes;
+
+    // calls below this node that were past the TreeBudget, counted per class instead of getting nodes
+    public int truncatedCalls;
+    public int truncatedClassCount;
+    public int[] truncatedClassIds; // parallel to truncatedClassCalls, allocated with the first truncated call
+    public int[] truncatedClassCalls;
+
+    // root trees of tasks submitted during this call that ran on other threads, see offerAsyncChildCall
+    public boolean async; // this root ran on another thread and was adopted by parentCall
+    public boolean asyncCaptured; // set by the owning thread when a task captured this call as its parent
+    private volatile AsyncChildCall asyncChildCalls; // pushed by the other threads, ADOPTED once this call completed
+
+    public ConverterCallNode(int classId, int callSourceId, int sourceTypeId, int targetTypeId) {
+        this.classId = classId;
+        this.callSourceId = callSourceId;
+        this.sourceTypeId = sourceTypeId;
+        this.targetTypeId = targetTypeId;
     }
 
     private ConverterCallNode() {
@@ -47,23 +91,23 @@ public final class ConverterCallNode {
             this.obj = new ConverterCallNode();
         }
 
-        public Builder withClass(String clazz) {
-            this.obj.clazz = clazz;
+        public Builder withClass(int classId) {
+            this.obj.classId = classId;
             return this;
         }
 
-        public Builder withCallSource(String callSource) {
-            this.obj.callSource = callSource;
+        public Builder withCallSource(int callSourceId) {
+            this.obj.callSourceId = callSourceId;
             return this;
         }
 
-        public Builder withSourceType(String sourceType) {
-            this.obj.sourceType = sourceType;
+        public Builder withSourceType(int sourceTypeId) {
+            this.obj.sourceTypeId = sourceTypeId;
             return this;
         }
 
-        public Builder withTargetType(String targetType) {
-            this.obj.targetType = targetType;
+        public Builder withTargetType(int targetTypeId) {
+            this.obj.targetTypeId = targetTypeId;
             return this;
         }
 
@@ -73,27 +117,273 @@ public final class ConverterCallNode {
 
     }
 
-    public boolean deepEquals(ConverterCallNode callNode) {
-        if (!this.equals(callNode)) {
-            return false;
+    public ConverterCallNode rootCall() {
+        ConverterCallNode rootCall = this;
+        while (rootCall.parentCall != null) {
+            rootCall = rootCall.parentCall;
         }
+        return rootCall;
+    }
 
-        boolean result = this.childCalls.size() == callNode.childCalls.size();
-        if (!result) {
-            return false;
+    /**
+     * Marks the call as returned, fixing its structural hash and folding it into the parent's one.
+     */
+    public void complete(long endNanos) {
+        complete(endNanos, startAllocatedBytes);
+    }
+
+    public void complete(long endNanos, long endAllocatedBytes) {
+        completed = true;
+        totalNanos = endNanos - startNanos;
+        allocatedBytes = endAllocatedBytes - startAllocatedBytes;
+        structuralHash = structuralHash(childCallsHash);
+        if (parentCall != null) {
+            precedingSiblingsHash = parentCall.childCallsHash;
+            parentCall.childCallsHash = foldChildHash(precedingSiblingsHash, structuralHash, iterations);
+            parentCall.childCallsNanos += totalNanos;
+            parentCall.childCallsAllocatedBytes += allocatedBytes;
+        }
+    }
+
+    /**
+     * Folds this just completed call into the previous sibling when both subtrees are identical: the sibling's iterations go
+     * up, the time of every node is added to its counterpart, and this subtree is dropped from the tree. A loop over thousands
+     * of identical items this way keeps a single subtree.
+     *
+     * @return the number of nodes dropped, 0 when the subtrees differ
+     */
+    public int foldIntoPreviousSibling() {
+        List<ConverterCallNode> siblings = parentCall.childCalls;
+        int size = siblings.size();
+        if (size < 2) {
+            return 0;
         }
 
-        if (this.childCalls.size() == 0) {
-            return true;
+        ConverterCallNode previous = siblings.get(size - 2);
+        if (!previous.deepEquals(this)) {
+            return 0;
         }
 
-        for (int i = 0; i < this.childCalls.size(); i++) {
-            ConverterCallNode childCall = this.childCalls.get(i);
-            result = result && childCall.deepEquals(callNode.childCalls.get(i));
+        siblings.remove(size - 1);
+        previous.iterations += iterations;
+        parentCall.childCallsHash = foldChildHash(previous.precedingSiblingsHash, previous.structuralHash, previous.iterations);
+
+        int droppedNodes = 0;
+        Deque<ConverterCallNode> pending = new ArrayDeque<>();
+        pending.push(this);
+        pending.push(previous);
+        while (!pending.isEmpty()) {
+            ConverterCallNode representative = pending.pop();
+            ConverterCallNode repeat = pending.pop();
+            representative.repeatedNanos += repeat.cumulativeNanos();
+            representative.repeatedSelfNanos += repeat.cumulativeSelfNanos();
+            representative.repeatedAllocatedBytes += repeat.cumulativeAllocatedBytes();
+            representative.repeatedSelfAllocatedBytes += repeat.cumulativeSelfAllocatedBytes();
+            droppedNodes++;
+
+            for (int i = 0; i < representative.childCalls.size(); i++) {
+                pending.push(repeat.childCalls.get(i));
+                pending.push(representative.childCalls.get(i));
+            }
+        }
+        return droppedNodes;
+    }
+
+    /**
+     * Hands the completed root tree of a task that was submitted during this call, and ran on another thread, over to this
+     * call. It is adopted as a child call when this call completes, so only the owning thread ever touches
+     * {@link #childCalls}.
+     *
+     * @return false if this call has already completed, the task outlived it and its tree has to stand on its own
+     */
+    public boolean offerAsyncChildCall(ConverterCallNode rootCall) {
+        AsyncChildCall head;
+        do {
+            head = asyncChildCalls;
+            if (head == ADOPTED) {
+                return false;
+            }
+        } while (!ASYNC_CHILD_CALLS.compareAndSet(this, head, new AsyncChildCall(rootCall, head)));
+        return true;
+    }
 
+    /**
+     * Appends the trees offered so far as child calls, right before this call completes, and refuses any later ones. They
+     * ran in parallel, so their time is not subtracted from the self time of this call. Each one is folded into an identical
+     * previous sibling and counted against the {@link TreeBudget} of the owning thread's root tree like a synchronous child;
+     * once the budget is exhausted the remaining trees are only counted per class as truncated calls of this call.
+     *
+     * @param ctx the owning thread's context, this call being its open call
+     * @return the number of adopted trees
+     */
+    public int adoptAsyncChildCalls(Agent.WorkContext ctx) {
+        AsyncChildCall head = ASYNC_CHILD_CALLS.getAndSet(this, ADOPTED);
+
+        // pushed last first, adopt them in the order they completed
+        List<ConverterCallNode> adopted = new ArrayList<>();
+        for (AsyncChildCall asyncChildCall = head; asyncChildCall != null; asyncChildCall = asyncChildCall.next) {
+            adopted.add(asyncChildCall.rootCall);
         }
+        for (int i = adopted.size() - 1; i >= 0; i--) {
+            ConverterCallNode childCall = adopted.get(i);
+            if (TreeBudget.exhausted(ctx)) {
+                countTruncatedCalls(childCall);
+                continue;
+            }
+
+            childCall.async = true;
+            childCall.parentCall = this;
+            childCall.structuralHash = childCall.structuralHash(childCall.childCallsHash);
+            childCall.precedingSiblingsHash = childCallsHash;
+            childCallsHash = foldChildHash(childCallsHash, childCall.structuralHash, childCall.iterations);
+            childCalls.add(childCall);
+            ctx.rootNodes += childCall.nodeCount() - childCall.foldIntoPreviousSibling();
+        }
+        return adopted.size();
+    }
+
+    private int nodeCount() {
+        int nodes = 0;
+        Deque<ConverterCallNode> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            ConverterCallNode node = pending.pop();
+            nodes++;
+            for (ConverterCallNode childCall : node.childCalls) {
+                pending.push(childCall);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Counts every call of a tree that gets no nodes, its own truncated calls included, as truncated calls of this call.
+     */
+    private void countTruncatedCalls(ConverterCallNode rootCall) {
+        Deque<ConverterCallNode> pending = new ArrayDeque<>();
+        Deque<Long> pendingInvocations = new ArrayDeque<>();
+        pending.push(rootCall);
+        pendingInvocations.push((long) rootCall.iterations);
+        while (!pending.isEmpty()) {
+            ConverterCallNode node = pending.pop();
+            long invocations = pendingInvocations.pop();
+            countTruncatedCalls(node.classId, invocations);
+            for (int i = 0; i < node.truncatedClassCount; i++) {
+                countTruncatedCalls(node.truncatedClassIds[i], invocations * node.truncatedClassCalls[i]);
+            }
+            for (ConverterCallNode childCall : node.childCalls) {
+                pending.push(childCall);
+                pendingInvocations.push(invocations * childCall.iterations);
+            }
+        }
+    }
+
+    private static final class AsyncChildCall {
+
+        private final ConverterCallNode rootCall;
+        private final AsyncChildCall next;
+
+        private AsyncChildCall(ConverterCallNode rootCall, AsyncChildCall next) {
+            this.rootCall = rootCall;
+            this.next = next;
+        }
+    }
+
+    public void countTruncatedCall(int classId) {
+        countTruncatedCalls(classId, 1L);
+    }
+
+    private void countTruncatedCalls(int classId, long invocations) {
+        int calls = (int) Math.min(invocations, Integer.MAX_VALUE);
+        truncatedCalls = (int) Math.min((long) truncatedCalls + calls, Integer.MAX_VALUE);
+        for (int i = 0; i < truncatedClassCount; i++) {
+            if (truncatedClassIds[i] == classId) {
+                truncatedClassCalls[i] = (int) Math.min((long) truncatedClassCalls[i] + calls, Integer.MAX_VALUE);
+                return;
+            }
+        }
+
+        if (truncatedClassIds == null) {
+            truncatedClassIds = new int[4];
+            truncatedClassCalls = new int[4];
+        } else if (truncatedClassCount == truncatedClassIds.length) {
+            truncatedClassIds = Arrays.copyOf(truncatedClassIds, truncatedClassCount * 2);
+            truncatedClassCalls = Arrays.copyOf(truncatedClassCalls, truncatedClassCount * 2);
+        }
+        truncatedClassIds[truncatedClassCount] = classId;
+        truncatedClassCalls[truncatedClassCount] = calls;
+        truncatedClassCount++;
+    }
 
-        return result;
+    public long selfNanos() {
+        return totalNanos - childCallsNanos;
+    }
+
+    /**
+     * Total time of this call across all its iterations, i.e. including the repeats folded into it.
+     */
+    public long cumulativeNanos() {
+        return totalNanos + repeatedNanos;
+    }
+
+    public long cumulativeSelfNanos() {
+        return selfNanos() + repeatedSelfNanos;
+    }
+
+    public long selfAllocatedBytes() {
+        return allocatedBytes - childCallsAllocatedBytes;
+    }
+
+    public long cumulativeAllocatedBytes() {
+        return allocatedBytes + repeatedAllocatedBytes;
+    }
+
+    public long cumulativeSelfAllocatedBytes() {
+        return selfAllocatedBytes() + repeatedSelfAllocatedBytes;
+    }
+
+    private long structuralHash(long childCallsHash) {
+        long hash = (hashCode() * HASH_MULTIPLIER) ^ childCallsHash ^ (truncatedCalls * TRUNCATED_CALLS_MULTIPLIER)
+                ^ (async ? ASYNC_MULTIPLIER : 0L);
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    private static long foldChildHash(long childCallsHash, long childHash, int childIterations) {
+        return childCallsHash * 31 + (childHash ^ ((childIterations - 1) * ITERATIONS_MULTIPLIER));
+    }
+
+    /**
+     * Compares the structural hashes first and walks both subtrees only when they match, to rule out a collision. The walk is
+     * iterative so arbitrarily deep trees cannot overflow the stack. The iterations of the two calls themselves don't matter,
+     * those of all their descendants do. Both calls have to be completed, only then their structural hashes are final.
+     */
+    public boolean deepEquals(ConverterCallNode callNode) {
+        if (this.structuralHash != callNode.structuralHash) {
+            return false;
+        }
+
+        Deque<ConverterCallNode> pending = new ArrayDeque<>();
+        pending.push(callNode);
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            ConverterCallNode left = pending.pop();
+            ConverterCallNode right = pending.pop();
+            if (!left.equals(right) || left.childCalls.size() != right.childCalls.size() || left.truncatedCalls != right.truncatedCalls
+                    || left.async != right.async) {
+                return false;
+            }
+
+            for (int i = left.childCalls.size() - 1; i >= 0; i--) {
+                if (left.childCalls.get(i).iterations != right.childCalls.get(i).iterations) {
+                    return false;
+                }
+                pending.push(right.childCalls.get(i));
+                pending.push(left.childCalls.get(i));
+            }
+        }
+        return true;
     }
 
     @Override
@@ -101,24 +391,59 @@ public final class ConverterCallNode {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ConverterCallNode node = (ConverterCallNode) o;
-        return Objects.equals(clazz, node.clazz) && Objects.equals(callSource, node.callSource) && Objects.equals(sourceType, node.sourceType) && Objects.equals(targetType, node.targetType);
+        return classId == node.classId && callSourceId == node.callSourceId && sourceTypeId == node.sourceTypeId && targetTypeId == node.targetTypeId;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(clazz, callSource, sourceType, targetType);
+        return 31 * (31 * (31 * classId + callSourceId) + sourceTypeId) + targetTypeId;
     }
 
     @Override
     public String toString() {
+        return (iterations > 1 ? "(\uD83D\uDD01" + iterations + ") " : "")
+                + (async ? "(async) " : "")
+                + describe(classId, callSourceId, sourceTypeId, targetTypeId)
+                + " [total " + LogUtils.formatNanos(totalNanos) + ", self " + LogUtils.formatNanos(selfNanos())
+                + (repeatedNanos > 0 ? ", all iterations " + LogUtils.formatNanos(cumulativeNanos()) : "")
+                + (allocatedBytes > 0 ? ", allocated " + LogUtils.formatBytes(allocatedBytes) + ", self " + LogUtils.formatBytes(selfAllocatedBytes())
+                + (repeatedAllocatedBytes > 0 ? ", all iterations " + LogUtils.formatBytes(cumulativeAllocatedBytes()) : "") : "") + "]"
+                + (truncatedCalls > 0 ? " " + describeTruncatedCalls() : "");
+    }
+
+    private String describeTruncatedCalls() {
+        Integer[] order = new Integer[truncatedClassCount];
+        for (int i = 0; i < truncatedClassCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(truncatedClassCalls[b], truncatedClassCalls[a]));
+
+        StringBuilder sb = new StringBuilder("(truncated ").append(truncatedCalls).append(" calls: ");
+        for (int i = 0; i < order.length; i++) {
+            sb.append(i > 0 ? ", " : "").append(LogUtils.abbreviateClassName(SymbolTable.name(truncatedClassIds[order[i]])))
+                    .append(" ×").append(truncatedClassCalls[order[i]]);
+        }
+        return sb.append(')').toString();
+    }
+
+    public static String describe(int classId, int callSourceId, int sourceTypeId, int targetTypeId) {
+        String clazz = SymbolTable.name(classId);
+        String callSource = SymbolTable.name(callSourceId);
+        String sourceType = SymbolTable.name(sourceTypeId);
+        String targetType = SymbolTable.name(targetTypeId);
 
-        return (iterations > 1 ? "(\uD83D\uDD01" + iterations + ") " : "") + (isDuplicate ? "(d) " : "") + LogUtils.abbreviateClassName(clazz)
+        return LogUtils.abbreviateClassName(clazz)
                 + "<" + (sourceType != null ? LogUtils.abbreviateClassName(sourceType) : "?")
                 + ", " + (targetType != null ? LogUtils.abbreviateClassName(targetType) : "?") + ">"
                 + " ← " + (callSource != null ? callSource : "(Unknown Source)");
     }
 
-    private void initLoggerIfNeeded() {
+    public static AgentLoggerFacade treeLogger() {
+        initLoggerIfNeeded();
+        return logger;
+    }
+
+    private static void initLoggerIfNeeded() {
         if (logger == null) {
             try {
                 loggerInitLock.lock();
@@ -132,14 +457,22 @@ public final class ConverterCallNode {
     }
 
     public void logRecursively() {
-        final StringBuilder sb = new StringBuilder("\n");
-        logRecursivelyInternal(this, 0, false, sb, "", this.iterations > 1);
         initLoggerIfNeeded();
-        logger.debug(sb.toString());
+        if (!logger.isDebugEnabled()) {
+            return;
+        }
+
+        logger.debug(renderTree());
+    }
+
+    public String renderTree() {
+        final StringBuilder sb = new StringBuilder("\n");
+        logRecursivelyInternal(this, 0, false, sb, "");
+        return sb.toString();
     }
 
     private void logRecursivelyInternal(ConverterCallNode nextNode, int level, boolean last, StringBuilder logBuilder,
-                                        String interimSeparator, boolean isDup) {
+                                        String interimSeparator) {
         logBuilder.append(interimSeparator);
         if (level > 0) {
             if (last) {
@@ -157,11 +490,7 @@ public final class ConverterCallNode {
 
         logBuilder.append(nextNode).append('\n');
         for (int i = 0; i < nextNode.childCalls.size(); i++) {
-            ConverterCallNode childCall = nextNode.childCalls.get(i);
-            if (!childCall.isDuplicate) {
-                logRecursivelyInternal(childCall, level + 1, i == (nextNode.childCalls.size() - childCall.iterations), logBuilder, interimSeparator,
-                        isDup || childCall.iterations > 1);
-            }
+            logRecursivelyInternal(nextNode.childCalls.get(i), level + 1, i == nextNode.childCalls.size() - 1, logBuilder, interimSeparator);
         }
 
 
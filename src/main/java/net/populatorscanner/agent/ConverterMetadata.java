@@ -0,0 +1,103 @@
+package net.populatorscanner.agent;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link SymbolTable} ids of the source/target types a converter or populator class declares through its
+ * {@code Converter<S, T>} or {@code Populator<S, T>} supertype.
+ * <p>
+ * The declaration does not have to be direct: superclasses and superinterfaces are walked and their type variables are
+ * substituted on the way, so {@code ProductConverter extends AbstractPopulatingConverter<ProductModel, ProductData>} resolves
+ * to {@code ProductData} as well. The result is computed once per runtime class and cached in a {@link ClassValue}. Classes are
+ * not defined yet when the agent transformer runs, so the value is filled on the first intercepted call instead.
+ */
+public final class ConverterMetadata {
+
+    private static final ConverterMetadata UNKNOWN = new ConverterMetadata(null, null);
+
+    private static final ClassValue<ConverterMetadata> CACHE = new ClassValue<ConverterMetadata>() {
+        @Override
+        protected ConverterMetadata computeValue(Class<?> type) {
+            ConverterMetadata metadata = resolve(type, Collections.emptyMap());
+            return metadata != null ? metadata : UNKNOWN;
+        }
+    };
+
+    public final int sourceTypeId;
+    public final int targetTypeId;
+
+    private ConverterMetadata(String sourceType, String targetType) {
+        this.sourceTypeId = SymbolTable.intern(sourceType);
+        this.targetTypeId = SymbolTable.intern(targetType);
+    }
+
+    public static ConverterMetadata of(Class<?> type) {
+        return CACHE.get(type);
+    }
+
+    private static ConverterMetadata resolve(Type type, Map<TypeVariable<?>, Type> bindings) {
+        Class<?> rawType;
+        Map<TypeVariable<?>, Type> superBindings;
+
+        if (type instanceof ParameterizedType) {
+            ParameterizedType parameterizedType = (ParameterizedType) type;
+            rawType = (Class<?>) parameterizedType.getRawType();
+
+            Type[] typeArguments = parameterizedType.getActualTypeArguments();
+            for (int i = 0; i < typeArguments.length; i++) {
+                typeArguments[i] = substitute(typeArguments[i], bindings);
+            }
+
+            if (isConverterOrPopulator(rawType) && typeArguments.length == 2) {
+                return new ConverterMetadata(typeName(typeArguments[0]), typeName(typeArguments[1]));
+            }
+
+            TypeVariable<?>[] typeParameters = rawType.getTypeParameters();
+            superBindings = new HashMap<>();
+            for (int i = 0; i < typeParameters.length && i < typeArguments.length; i++) {
+                superBindings.put(typeParameters[i], typeArguments[i]);
+            }
+        } else if (type instanceof Class) {
+            rawType = (Class<?>) type;
+            if (isConverterOrPopulator(rawType)) {
+                // raw Converter/Populator usage, nothing to resolve
+                return null;
+            }
+            superBindings = Collections.emptyMap();
+        } else {
+            return null;
+        }
+
+        for (Type genericInterface : rawType.getGenericInterfaces()) {
+            ConverterMetadata metadata = resolve(genericInterface, superBindings);
+            if (metadata != null) {
+                return metadata;
+            }
+        }
+
+        Type genericSuperclass = rawType.getGenericSuperclass();
+        return genericSuperclass != null ? resolve(genericSuperclass, superBindings) : null;
+    }
+
+    private static Type substitute(Type type, Map<TypeVariable<?>, Type> bindings) {
+        if (type instanceof TypeVariable) {
+            Type bound = bindings.get(type);
+            return bound != null ? bound : type;
+        }
+        return type;
+    }
+
+    private static String typeName(Type type) {
+        // an unbound type variable or wildcard is as good as unknown
+        return type instanceof Class || type instanceof ParameterizedType ? type.getTypeName() : null;
+    }
+
+    private static boolean isConverterOrPopulator(Class<?> type) {
+        return Agent.CONVERTER_CLASS_NAME.equals(type.getName()) || Agent.POPULATOR_CLASS_NAME.equals(type.getName());
+    }
+}
@@ -0,0 +1,175 @@
+package net.populatorscanner.agent;
+
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.description.type.TypeDefinition;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.utility.JavaModule;
+
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which loaded types get instrumented: those implementing the converter or populator interface, directly or through
+ * any of their supertypes.
+ * <p>
+ * Most of the classes a platform start loads can never be converters, so their names are checked against a list of ignored
+ * package prefixes first, before any supertype is resolved. The defaults cover the JDK and the usual libraries, they can be
+ * turned off with {@value #IGNORE_DEFAULT_PREFIXES_KEY}{@code =false} and extended with {@value #IGNORE_PREFIXES_KEY}, a
+ * {@code ;} separated list of prefixes.
+ * <p>
+ * The outcome for every supertype resolved on the way is cached per class loader, so the common abstract converters and the
+ * framework base classes are only walked once per loader.
+ */
+public final class ConverterTypeMatcher implements AgentBuilder.RawMatcher {
+
+    public static final String IGNORE_PREFIXES_KEY = "ignorePrefixes";
+    public static final String IGNORE_DEFAULT_PREFIXES_KEY = "ignoreDefaultPrefixes";
+
+    static final String[] DEFAULT_IGNORED_PREFIXES = {
+            "java.", "javax.", "jakarta.", "jdk.", "sun.", "com.sun.", "oracle.",
+            "org.springframework.", "org.apache.", "org.codehaus.groovy.", "groovy.", "org.groovy.", "org.eclipse.",
+            "org.hibernate.", "org.aspectj.", "org.slf4j.", "ch.qos.logback.", "org.junit.", "kotlin.", "scala.",
+            "com.fasterxml.", "com.google.", "io.netty.", "org.jboss.", "org.glassfish.", "org.w3c.", "org.xml.",
+            "net.bytebuddy.", "org.objectweb.asm.", "com.zaxxer.", "io.micrometer.", "reactor."
+    };
+
+    private static final LongAdder examinedTypes = new LongAdder();
+    private static final LongAdder ignoredTypes = new LongAdder();
+    private static final LongAdder matchedTypes = new LongAdder();
+    private static final LongAdder resolvedSupertypes = new LongAdder();
+    private static final LongAdder matchingNanos = new LongAdder();
+
+    // type name -> whether it is a converter/populator type, per class loader, the bootstrap loader has its own map
+    private static final Map<ClassLoader, Map<String, Boolean>> supertypeCache = Collections.synchronizedMap(new WeakHashMap<>());
+    private static final Map<String, Boolean> bootstrapSupertypeCache = new ConcurrentHashMap<>();
+
+    private final String[] ignoredPrefixes;
+
+    public ConverterTypeMatcher() {
+        this(ignoredPrefixes());
+    }
+
+    ConverterTypeMatcher(String[] ignoredPrefixes) {
+        this.ignoredPrefixes = ignoredPrefixes;
+    }
+
+    private static String[] ignoredPrefixes() {
+        List<String> prefixes = new ArrayList<>();
+        if (AgentConfig.getBoolean(IGNORE_DEFAULT_PREFIXES_KEY, true)) {
+            Collections.addAll(prefixes, DEFAULT_IGNORED_PREFIXES);
+        }
+        for (String prefix : AgentConfig.getString(IGNORE_PREFIXES_KEY, "").split(";")) {
+            if (!prefix.trim().isEmpty()) {
+                prefixes.add(prefix.trim());
+            }
+        }
+        return prefixes.toArray(new String[0]);
+    }
+
+    @Override
+    public boolean matches(TypeDescription typeDescription, ClassLoader classLoader, JavaModule module, Class<?> classBeingRedefined,
+                           ProtectionDomain protectionDomain) {
+        long start = System.nanoTime();
+        try {
+            examinedTypes.increment();
+            if (isIgnored(typeDescription.getName())) {
+                ignoredTypes.increment();
+                return false;
+            }
+
+            boolean matched = isConverterType(typeDescription, cacheOf(classLoader));
+            if (matched) {
+                matchedTypes.increment();
+            }
+            return matched;
+        } catch (RuntimeException e) {
+            // a supertype that can't be resolved from this loader can't be one of ours either; nothing on the failed path was
+            // cached, so a later lookup through a better placed loader still gets its chance
+            return false;
+        } finally {
+            matchingNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    public boolean isIgnored(String typeName) {
+        for (String prefix : ignoredPrefixes) {
+            if (typeName.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isConverterType(TypeDescription typeDescription, Map<String, Boolean> cache) {
+        for (TypeDescription.Generic interfaceType : typeDescription.getInterfaces()) {
+            if (Agent.CLASS_MATCH_PREDICATE.test(interfaceType.getTypeName())) {
+                return true;
+            }
+        }
+
+        for (TypeDescription.Generic interfaceType : typeDescription.getInterfaces()) {
+            if (isConverterSupertype(interfaceType, cache)) {
+                return true;
+            }
+        }
+        TypeDescription.Generic superClass = typeDescription.getSuperClass();
+        return superClass != null && isConverterSupertype(superClass, cache);
+    }
+
+    private boolean isConverterSupertype(TypeDefinition supertype, Map<String, Boolean> cache) {
+        TypeDescription erasure = supertype.asErasure();
+        String name = erasure.getName();
+        if (isIgnored(name)) {
+            return false;
+        }
+
+        Boolean known = cache.get(name);
+        if (known == null) {
+            resolvedSupertypes.increment();
+            known = isConverterType(erasure, cache);
+            cache.put(name, known);
+        }
+        return known;
+    }
+
+    private static Map<String, Boolean> cacheOf(ClassLoader classLoader) {
+        if (classLoader == null) {
+            return bootstrapSupertypeCache;
+        }
+        return supertypeCache.computeIfAbsent(classLoader, loader -> new ConcurrentHashMap<>());
+    }
+
+    public static long examinedTypes() {
+        return examinedTypes.sum();
+    }
+
+    public static long ignoredTypes() {
+        return ignoredTypes.sum();
+    }
+
+    public static long matchedTypes() {
+        return matchedTypes.sum();
+    }
+
+    public static long resolvedSupertypes() {
+        return resolvedSupertypes.sum();
+    }
+
+    public static long matchingNanos() {
+        return matchingNanos.sum();
+    }
+
+    public static void resetStatistics() {
+        examinedTypes.reset();
+        ignoredTypes.reset();
+        matchedTypes.reset();
+        resolvedSupertypes.reset();
+        matchingNanos.reset();
+    }
+}
@@ -0,0 +1,82 @@
+package net.populatorscanner.agent;
+
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.matcher.ElementMatcher;
+import net.bytebuddy.matcher.ElementMatchers;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Methods that open a {@link RequestScope}, e.g. a servlet filter's {@code doFilter} or the handler methods of the Spring MVC
+ * controllers. Configured as {@code ;} separated lists:
+ * <ul>
+ *     <li>{@value #METHODS_KEY}: {@code type#method} entries, e.g.
+ *     {@code de.hybris.platform.servicelayer.web.AbstractPlatformFilterChain#doFilterInternal}</li>
+ *     <li>{@value #ANNOTATIONS_KEY}: annotations marking entry point methods, e.g.
+ *     {@code org.springframework.web.bind.annotation.RequestMapping;org.springframework.web.bind.annotation.GetMapping}</li>
+ * </ul>
+ * Without either nothing besides converters and populators is instrumented.
+ */
+public final class EntryPoints {
+
+    public static final String METHODS_KEY = "entryPoints";
+    public static final String ANNOTATIONS_KEY = "entryPointAnnotations";
+
+    private static final Map<String, List<String>> methodsByType = new LinkedHashMap<>();
+    private static final List<String> annotations = new ArrayList<>();
+
+    static {
+        for (String entry : split(AgentConfig.getString(METHODS_KEY, ""))) {
+            int separator = entry.indexOf('#');
+            if (separator > 0 && separator < entry.length() - 1) {
+                methodsByType.computeIfAbsent(entry.substring(0, separator), type -> new ArrayList<>()).add(entry.substring(separator + 1));
+            }
+        }
+        annotations.addAll(split(AgentConfig.getString(ANNOTATIONS_KEY, "")));
+    }
+
+    private EntryPoints() {
+    }
+
+    private static List<String> split(String entries) {
+        List<String> split = new ArrayList<>();
+        for (String entry : entries.split(";")) {
+            if (!entry.trim().isEmpty()) {
+                split.add(entry.trim());
+            }
+        }
+        return split;
+    }
+
+    public static boolean isConfigured() {
+        return !methodsByType.isEmpty() || !annotations.isEmpty();
+    }
+
+    public static ElementMatcher<TypeDescription> typeMatcher() {
+        ElementMatcher.Junction<TypeDescription> matcher = ElementMatchers.namedOneOf(methodsByType.keySet().toArray(new String[0]));
+        if (!annotations.isEmpty()) {
+            matcher = matcher.or(ElementMatchers.declaresMethod(annotatedEntryPoint()));
+        }
+        return matcher;
+    }
+
+    public static ElementMatcher<MethodDescription> methodMatcher() {
+        ElementMatcher.Junction<MethodDescription> matcher = ElementMatchers.none();
+        for (Map.Entry<String, List<String>> type : methodsByType.entrySet()) {
+            matcher = matcher.or(ElementMatchers.isDeclaredBy(ElementMatchers.named(type.getKey()))
+                    .and(ElementMatchers.namedOneOf(type.getValue().toArray(new String[0]))));
+        }
+        if (!annotations.isEmpty()) {
+            matcher = matcher.or(annotatedEntryPoint());
+        }
+        return matcher;
+    }
+
+    private static ElementMatcher.Junction<MethodDescription> annotatedEntryPoint() {
+        return ElementMatchers.isAnnotatedWith(ElementMatchers.namedOneOf(annotations.toArray(new String[0])));
+    }
+}
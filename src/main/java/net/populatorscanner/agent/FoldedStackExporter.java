@@ -0,0 +1,123 @@
+package net.populatorscanner.agent;
+
+import net.populatorscanner.log.LogUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static net.populatorscanner.log.LogUtils.LOGGER;
+
+/**
+ * Appends completed root trees to {@value #FILE_KEY} in the collapsed-stack format of Brendan Gregg's flame graph tools, one
+ * {@code Converter<Src,Tgt>;PopulatorA;PopulatorB weight} line per call path.
+ * <p>
+ * The {@value #WEIGHT_KEY} is either {@link Weight#COUNT}, the number of calls of exactly that path (repeated iterations
+ * included), or {@link Weight#TIME}, the self time of the path in nanoseconds. Lines are streamed out while the tree is walked,
+ * so nothing bigger than one line is built in memory. Only the renderer thread writes to the file.
+ */
+public final class FoldedStackExporter {
+
+    public static final String FILE_KEY = "foldedStacksFile";
+    public static final String WEIGHT_KEY = "foldedStacksWeight";
+
+    public enum Weight {
+        COUNT,
+        TIME
+    }
+
+    public static final Weight WEIGHT = AgentConfig.getEnum(WEIGHT_KEY, Weight.class, Weight.COUNT);
+
+    private static Writer writer;
+
+    private FoldedStackExporter() {
+    }
+
+    public static void export(ConverterCallNode rootCall) {
+        try {
+            Writer out = writer();
+            write(rootCall, out);
+            out.flush();
+        } catch (IOException e) {
+            LOGGER.error("Couldn't write folded stacks: {}", e);
+        }
+    }
+
+    private static Writer writer() throws IOException {
+        if (writer == null) {
+            Path file = Paths.get(AgentConfig.getString(FILE_KEY,
+                    Paths.get(System.getProperty("java.io.tmpdir"), "populator-scanner.folded").toString()));
+            writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE));
+            LOGGER.info("Writing folded converter call stacks to {}", file.toAbsolutePath());
+        }
+        return writer;
+    }
+
+    static void write(ConverterCallNode rootCall, Writer out) throws IOException {
+        StringBuilder path = new StringBuilder();
+        Deque<PendingFrame> pending = new ArrayDeque<>();
+        pending.push(new PendingFrame(rootCall, 0, 1L));
+        while (!pending.isEmpty()) {
+            PendingFrame frame = pending.pop();
+            ConverterCallNode node = frame.node;
+            long invocations = frame.parentInvocations * node.iterations;
+
+            path.setLength(frame.pathLength);
+            if (frame.pathLength > 0) {
+                path.append(';');
+            }
+            appendFrame(path, node);
+
+            // a folded subtree stands for all its iterations, in calls as well as in time
+            long weight = WEIGHT == Weight.TIME ? node.cumulativeSelfNanos() : invocations;
+            if (weight > 0) {
+                out.append(path).append(' ').append(Long.toString(weight)).append('\n');
+            }
+
+            int pathLength = path.length();
+            for (int i = node.childCalls.size() - 1; i >= 0; i--) {
+                ConverterCallNode childCall = node.childCalls.get(i);
+                pending.push(new PendingFrame(childCall, pathLength, invocations));
+            }
+        }
+    }
+
+    private static void appendFrame(StringBuilder path, ConverterCallNode node) {
+        String sourceType = SymbolTable.name(node.sourceTypeId);
+        String targetType = SymbolTable.name(node.targetTypeId);
+
+        int frameStart = path.length();
+        path.append(LogUtils.abbreviateClassName(SymbolTable.name(node.classId)))
+                .append('<').append(sourceType != null ? LogUtils.abbreviateClassName(sourceType) : "?")
+                .append(',').append(targetType != null ? LogUtils.abbreviateClassName(targetType) : "?").append('>');
+
+        // frames are separated by ';' and the weight by ' ', neither may show up inside a frame
+        for (int i = frameStart; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == ';' || Character.isWhitespace(c)) {
+                path.setCharAt(i, '_');
+            }
+        }
+    }
+
+    private static final class PendingFrame {
+
+        private final ConverterCallNode node;
+        private final int pathLength;
+        private final long parentInvocations;
+
+        private PendingFrame(ConverterCallNode node, int pathLength, long parentInvocations) {
+            this.node = node;
+            this.pathLength = pathLength;
+            this.parentInvocations = parentInvocations;
+        }
+    }
+}
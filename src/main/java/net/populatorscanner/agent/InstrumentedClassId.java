@@ -0,0 +1,15 @@
+package net.populatorscanner.agent;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds the {@link SymbolTable} id of the instrumented class to an advice parameter. The id is interned when the class is
+ * transformed and woven in as a constant.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface InstrumentedClassId {
+}
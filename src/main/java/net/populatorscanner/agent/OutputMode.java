@@ -0,0 +1,48 @@
+package net.populatorscanner.agent;
+
+/**
+ * What happens with a completed root tree, configured with the {@value #KEY} agent argument.
+ */
+public enum OutputMode {
+
+    /**
+     * Every tree is rendered and logged on its own.
+     */
+    LOG,
+
+    /**
+     * Trees are merged into the {@link AggregateProfile}, which is logged periodically or on demand.
+     */
+    AGGREGATE,
+
+    /**
+     * Trees are appended to a file as collapsed stacks for flame graphs, see {@link FoldedStackExporter}.
+     */
+    FOLDED_STACKS,
+
+    /**
+     * No trees are built, every call is emitted as a JDK Flight Recorder event, see
+     * {@link net.populatorscanner.agent.jfr.JfrEvents}. Thresholds, stack traces and enablement come from the recording
+     * settings.
+     */
+    JFR,
+
+    /**
+     * No trees are built, every call is recorded as an enter and an exit event into a memory-mapped ring file, see
+     * {@link net.populatorscanner.agent.ring.RingFileRecorder}. The trees are rebuilt offline with
+     * {@link net.populatorscanner.agent.ring.RingFileReader}.
+     */
+    RING_FILE;
+
+    public static final String KEY = "output";
+
+    private static volatile OutputMode current = AgentConfig.getEnum(KEY, OutputMode.class, LOG);
+
+    public static OutputMode current() {
+        return current;
+    }
+
+    public static void set(OutputMode outputMode) {
+        current = outputMode;
+    }
+}
@@ -0,0 +1,238 @@
+package net.populatorscanner.agent;
+
+import net.populatorscanner.log.AgentLoggerFacade;
+import net.populatorscanner.log.LogUtils;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds the same source instance converted by the same converter more than once within one {@link RequestScope}, e.g. a
+ * {@code ProductModel} converted to {@code ProductData} by several components of one page. Those results could be cached or
+ * passed on instead.
+ * <p>
+ * Every request keeps its own table of (source identity, target type, converter class) with the call source of the first
+ * conversion. Sources are only weakly referenced, so a long running request doesn't keep its models alive. A repeated
+ * conversion is counted under the call sources of the first and the repeated conversion. Only single argument
+ * {@code convert} calls inside a request scope are checked.
+ * <p>
+ * Off unless {@value #KEY} is set, since every checked conversion resolves its call source.
+ */
+public final class RedundantConversions {
+
+    public static final String KEY = "redundantConversions";
+
+    private static volatile boolean enabled = AgentConfig.getBoolean(KEY, false);
+
+    private static final ConcurrentHashMap<Site, LongAdder> sites = new ConcurrentHashMap<>();
+
+    private RedundantConversions() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        RedundantConversions.enabled = enabled;
+    }
+
+    /**
+     * Records the conversion of {@code source} by {@code converter} in the table of {@code scope}, and counts it if the
+     * same conversion happened before in the request.
+     *
+     * @param clazz binary name of the instrumented class, to resolve the call source
+     */
+    public static void check(RequestScope scope, Object source, Object converter, String clazz, int classId) {
+        if (source == null) {
+            return;
+        }
+
+        if (scope.conversionTable == null) {
+            scope.conversionTable = new Table();
+        }
+        int targetTypeId = ConverterMetadata.of(converter.getClass()).targetTypeId;
+        Table.Entry entry = scope.conversionTable.get(source, classId, targetTypeId);
+        if (entry == null) {
+            scope.conversionTable.put(source, classId, targetTypeId, CallSourceCapture.capture(clazz));
+            return;
+        }
+
+        scope.redundantConversions++;
+        Site site = new Site(scope.endpointId, classId, SymbolTable.ofClass(source.getClass()), targetTypeId,
+                entry.firstCallSourceId, CallSourceCapture.capture(clazz));
+        sites.computeIfAbsent(site, key -> new LongAdder()).increment();
+    }
+
+    public static final class Site {
+
+        public final int endpointId;
+        public final int classId;
+        public final int sourceTypeId;
+        public final int targetTypeId;
+        public final int firstCallSourceId;
+        public final int repeatedCallSourceId;
+
+        private Site(int endpointId, int classId, int sourceTypeId, int targetTypeId, int firstCallSourceId, int repeatedCallSourceId) {
+            this.endpointId = endpointId;
+            this.classId = classId;
+            this.sourceTypeId = sourceTypeId;
+            this.targetTypeId = targetTypeId;
+            this.firstCallSourceId = firstCallSourceId;
+            this.repeatedCallSourceId = repeatedCallSourceId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Site site = (Site) o;
+            return endpointId == site.endpointId && classId == site.classId && sourceTypeId == site.sourceTypeId
+                    && targetTypeId == site.targetTypeId && firstCallSourceId == site.firstCallSourceId
+                    && repeatedCallSourceId == site.repeatedCallSourceId;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (31 * (31 * (31 * endpointId + classId) + sourceTypeId) + targetTypeId) + firstCallSourceId)
+                    + repeatedCallSourceId;
+        }
+    }
+
+    /**
+     * @return the sites with their number of repeated conversions, most first
+     */
+    public static List<Map.Entry<Site, LongAdder>> sites() {
+        List<Map.Entry<Site, LongAdder>> sorted = new ArrayList<>(sites.entrySet());
+        sorted.sort(Comparator.comparingLong((Map.Entry<Site, LongAdder> site) -> site.getValue().sum()).reversed());
+        return sorted;
+    }
+
+    public static void reset() {
+        sites.clear();
+    }
+
+    public static String render() {
+        StringBuilder sb = new StringBuilder("\nRedundant conversions:\n");
+        for (Map.Entry<Site, LongAdder> entry : sites()) {
+            Site site = entry.getKey();
+            sb.append("[×").append(entry.getValue().sum()).append("] ")
+                    .append(LogUtils.abbreviateClassName(SymbolTable.name(site.classId)))
+                    .append('<').append(abbreviatedName(site.sourceTypeId)).append(',').append(abbreviatedName(site.targetTypeId)).append('>')
+                    .append(" first ← ").append(nameOrUnknown(site.firstCallSourceId))
+                    .append(", again ← ").append(nameOrUnknown(site.repeatedCallSourceId))
+                    .append(" in ").append(LogUtils.abbreviateClassName(SymbolTable.name(site.endpointId))).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String abbreviatedName(int id) {
+        String name = SymbolTable.name(id);
+        return name != null ? LogUtils.abbreviateClassName(name) : "?";
+    }
+
+    private static String nameOrUnknown(int id) {
+        String name = SymbolTable.name(id);
+        return name != null ? name : "?";
+    }
+
+    public static void dump() {
+        AgentLoggerFacade logger = ConverterCallNode.treeLogger();
+        if (logger.isInfoEnabled()) {
+            logger.info(render());
+        }
+    }
+
+    /**
+     * Identity hash table of the conversions of one request, only touched by the request's thread. Entries whose source was
+     * collected are dropped on the next insert.
+     */
+    static final class Table {
+
+        private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+        private Entry[] buckets = new Entry[64];
+        private int size;
+
+        static final class Entry extends WeakReference<Object> {
+
+            private final int hash;
+            private final int classId;
+            private final int targetTypeId;
+            final int firstCallSourceId;
+            private Entry next;
+
+            private Entry(Object source, ReferenceQueue<Object> queue, int hash, int classId, int targetTypeId, int firstCallSourceId, Entry next) {
+                super(source, queue);
+                this.hash = hash;
+                this.classId = classId;
+                this.targetTypeId = targetTypeId;
+                this.firstCallSourceId = firstCallSourceId;
+                this.next = next;
+            }
+        }
+
+        Entry get(Object source, int classId, int targetTypeId) {
+            int hash = System.identityHashCode(source);
+            for (Entry entry = buckets[hash & (buckets.length - 1)]; entry != null; entry = entry.next) {
+                if (entry.hash == hash && entry.get() == source && entry.classId == classId && entry.targetTypeId == targetTypeId) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+
+        void put(Object source, int classId, int targetTypeId, int firstCallSourceId) {
+            expungeCollected();
+            if (size >= buckets.length * 3 / 4) {
+                resize();
+            }
+
+            int hash = System.identityHashCode(source);
+            int bucket = hash & (buckets.length - 1);
+            buckets[bucket] = new Entry(source, collected, hash, classId, targetTypeId, firstCallSourceId, buckets[bucket]);
+            size++;
+        }
+
+        private void expungeCollected() {
+            Reference<?> reference;
+            while ((reference = collected.poll()) != null) {
+                Entry stale = (Entry) reference;
+                int bucket = stale.hash & (buckets.length - 1);
+                Entry previous = null;
+                for (Entry entry = buckets[bucket]; entry != null; previous = entry, entry = entry.next) {
+                    if (entry == stale) {
+                        if (previous == null) {
+                            buckets[bucket] = entry.next;
+                        } else {
+                            previous.next = entry.next;
+                        }
+                        size--;
+                        break;
+                    }
+                }
+            }
+        }
+
+        private void resize() {
+            Entry[] previous = buckets;
+            buckets = new Entry[previous.length * 2];
+            for (Entry head : previous) {
+                Entry entry = head;
+                while (entry != null) {
+                    Entry next = entry.next;
+                    int bucket = entry.hash & (buckets.length - 1);
+                    entry.next = buckets[bucket];
+                    buckets[bucket] = entry;
+                    entry = next;
+                }
+            }
+        }
+    }
+}
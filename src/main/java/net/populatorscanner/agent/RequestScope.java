@@ -0,0 +1,105 @@
+package net.populatorscanner.agent;
+
+/**
+ * Conversions of one request, from the outermost {@link EntryPoints entry point} method to its return. Counts every
+ * intercepted call and the time spent inside root calls, sampled or not, and is rolled up into the
+ * {@link RequestScopeProfile} when the request is done.
+ */
+public final class RequestScope {
+
+    public final int endpointId;
+    public final long startNanos;
+    public long totalNanos;
+
+    public int calls;
+    public int rootCalls;
+    public long conversionNanos; // time spent inside root calls
+    public int redundantConversions;
+
+    // conversions seen so far, created by the first one if RedundantConversions is on
+    RedundantConversions.Table conversionTable;
+
+    private int conversionDepth;
+    private long rootStartNanos;
+
+    // open addressing set of the class ids called, 0 marks a free slot
+    private int[] classIds = new int[16];
+    private int distinctClasses;
+
+    private RequestScope(int endpointId, long startNanos) {
+        this.endpointId = endpointId;
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * Opens a scope unless the thread already is inside one, nested entry points belong to the outer request.
+     */
+    public static void open(Agent.WorkContext ctx, String endpoint) {
+        if (ctx.scopeDepth++ == 0) {
+            ctx.scope = new RequestScope(SymbolTable.intern(endpoint), System.nanoTime());
+        }
+    }
+
+    public static void close(Agent.WorkContext ctx) {
+        if (ctx.scopeDepth > 0 && --ctx.scopeDepth == 0) {
+            RequestScope scope = ctx.scope;
+            ctx.scope = null;
+            scope.totalNanos = System.nanoTime() - scope.startNanos;
+            RequestScopeProfile.record(scope);
+        }
+    }
+
+    public void enterConversion(int classId) {
+        calls++;
+        addClass(classId);
+        if (conversionDepth++ == 0) {
+            rootCalls++;
+            rootStartNanos = System.nanoTime();
+        }
+    }
+
+    public void exitConversion() {
+        // a conversion that was already running when the scope opened didn't enter it
+        if (conversionDepth > 0 && --conversionDepth == 0) {
+            conversionNanos += System.nanoTime() - rootStartNanos;
+        }
+    }
+
+    public int distinctClasses() {
+        return distinctClasses;
+    }
+
+    private void addClass(int classId) {
+        if (classId == SymbolTable.UNKNOWN) {
+            return;
+        }
+
+        int mask = classIds.length - 1;
+        int slot = (classId * 0x9E3779B9) & mask;
+        while (classIds[slot] != 0) {
+            if (classIds[slot] == classId) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        classIds[slot] = classId;
+        if (++distinctClasses * 2 > classIds.length) {
+            rehash();
+        }
+    }
+
+    private void rehash() {
+        int[] previous = classIds;
+        classIds = new int[previous.length * 2];
+        int mask = classIds.length - 1;
+        for (int classId : previous) {
+            if (classId != 0) {
+                int slot = (classId * 0x9E3779B9) & mask;
+                while (classIds[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                classIds[slot] = classId;
+            }
+        }
+    }
+}
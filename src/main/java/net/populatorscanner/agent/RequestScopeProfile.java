@@ -0,0 +1,108 @@
+package net.populatorscanner.agent;
+
+import net.populatorscanner.log.AgentLoggerFacade;
+import net.populatorscanner.log.LogUtils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Completed {@link RequestScope}s summed up per entry point, to rank the endpoints by the time their requests spend in
+ * converters and populators.
+ */
+public final class RequestScopeProfile {
+
+    private static final ConcurrentHashMap<Integer, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    private RequestScopeProfile() {
+    }
+
+    public static final class Endpoint {
+
+        public final int endpointId;
+        public final LongAdder requests = new LongAdder();
+        public final LongAdder requestNanos = new LongAdder();
+        public final LongAdder calls = new LongAdder();
+        public final LongAdder rootCalls = new LongAdder();
+        public final LongAdder conversionNanos = new LongAdder();
+        public final LongAdder distinctClasses = new LongAdder();
+        public final LongAdder redundantConversions = new LongAdder();
+        public final LongAccumulator maxCalls = new LongAccumulator(Math::max, 0);
+        public final LongAccumulator maxConversionNanos = new LongAccumulator(Math::max, 0);
+
+        private Endpoint(int endpointId) {
+            this.endpointId = endpointId;
+        }
+    }
+
+    public static void record(RequestScope scope) {
+        Endpoint endpoint = endpoints.get(scope.endpointId);
+        if (endpoint == null) {
+            // the first request is counted before the entry is published, render never sees an endpoint without requests
+            Endpoint created = new Endpoint(scope.endpointId);
+            created.requests.increment();
+            endpoint = endpoints.putIfAbsent(scope.endpointId, created);
+            if (endpoint == null) {
+                endpoint = created;
+            } else {
+                endpoint.requests.increment();
+            }
+        } else {
+            endpoint.requests.increment();
+        }
+        endpoint.requestNanos.add(scope.totalNanos);
+        endpoint.calls.add(scope.calls);
+        endpoint.rootCalls.add(scope.rootCalls);
+        endpoint.conversionNanos.add(scope.conversionNanos);
+        endpoint.distinctClasses.add(scope.distinctClasses());
+        endpoint.redundantConversions.add(scope.redundantConversions);
+        endpoint.maxCalls.accumulate(scope.calls);
+        endpoint.maxConversionNanos.accumulate(scope.conversionNanos);
+    }
+
+    /**
+     * @return the endpoints by time spent in conversions, largest first
+     */
+    public static List<Endpoint> endpoints() {
+        List<Endpoint> sorted = new ArrayList<>(endpoints.values());
+        sorted.sort(Comparator.comparingLong((Endpoint endpoint) -> endpoint.conversionNanos.sum()).reversed());
+        return sorted;
+    }
+
+    public static void reset() {
+        endpoints.clear();
+    }
+
+    public static String render() {
+        StringBuilder sb = new StringBuilder("\nRequest scope profile:\n");
+        for (Endpoint endpoint : endpoints()) {
+            long requests = endpoint.requests.sum();
+            long conversionNanos = endpoint.conversionNanos.sum();
+            long requestNanos = endpoint.requestNanos.sum();
+            sb.append("[×").append(requests)
+                    .append(", conversions ").append(TimeUnit.NANOSECONDS.toMillis(conversionNanos)).append(" ms")
+                    .append(" (").append(requestNanos > 0 ? conversionNanos * 100 / requestNanos : 0).append("% of request time)")
+                    .append(", per request ").append(endpoint.calls.sum() / requests).append(" calls")
+                    .append(" in ").append(endpoint.rootCalls.sum() / requests).append(" trees")
+                    .append(", ").append(endpoint.distinctClasses.sum() / requests).append(" distinct classes")
+                    .append(", ").append(endpoint.redundantConversions.sum() / requests).append(" redundant")
+                    .append(", ").append(TimeUnit.NANOSECONDS.toMicros(conversionNanos / requests)).append(" µs")
+                    .append(", max ").append(endpoint.maxCalls.get()).append(" calls")
+                    .append(" / ").append(TimeUnit.NANOSECONDS.toMillis(endpoint.maxConversionNanos.get())).append(" ms] ")
+                    .append(LogUtils.abbreviateClassName(SymbolTable.name(endpoint.endpointId))).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public static void dump() {
+        AgentLoggerFacade logger = ConverterCallNode.treeLogger();
+        if (logger.isInfoEnabled()) {
+            logger.info(render());
+        }
+    }
+}
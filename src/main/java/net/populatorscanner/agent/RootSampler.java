@@ -0,0 +1,107 @@
+package net.populatorscanner.agent;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether a root conversion is tracked. Every configured criterion has to agree:
+ * <ul>
+ *     <li>{@value #SAMPLE_EVERY_KEY}: track every N-th root call of a thread</li>
+ *     <li>{@value #SAMPLE_PROBABILITY_KEY}: track a root call with the given probability</li>
+ *     <li>{@value #MAX_ROOTS_PER_SECOND_KEY}: track at most that many root calls per second across all threads</li>
+ * </ul>
+ * Without any of them every root call is tracked. With {@value #ENABLED_KEY}{@code =false} none is.
+ */
+public final class RootSampler {
+
+    public static final String ENABLED_KEY = "enabled";
+    public static final String SAMPLE_EVERY_KEY = "sampleEvery";
+    public static final String SAMPLE_PROBABILITY_KEY = "sampleProbability";
+    public static final String MAX_ROOTS_PER_SECOND_KEY = "maxRootsPerSecond";
+
+    private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static volatile boolean enabled = AgentConfig.getBoolean(ENABLED_KEY, true);
+    private static volatile int sampleEvery;
+    private static volatile double sampleProbability;
+    private static volatile int maxRootsPerSecond;
+
+    private static final AtomicLong currentSecondStart = new AtomicLong(System.nanoTime());
+    private static final AtomicInteger rootsInCurrentSecond = new AtomicInteger();
+
+    static {
+        configure(AgentConfig.getInt(SAMPLE_EVERY_KEY, 1),
+                AgentConfig.getDouble(SAMPLE_PROBABILITY_KEY, 1.0),
+                AgentConfig.getInt(MAX_ROOTS_PER_SECOND_KEY, 0));
+    }
+
+    private RootSampler() {
+    }
+
+    /**
+     * @param sampleEvery       track every N-th root call per thread, 1 or less tracks all of them
+     * @param sampleProbability probability of tracking a root call, 1.0 or more tracks all of them
+     * @param maxRootsPerSecond global rate limit of tracked root calls, 0 or less means unlimited
+     */
+    public static void configure(int sampleEvery, double sampleProbability, int maxRootsPerSecond) {
+        RootSampler.sampleEvery = sampleEvery;
+        RootSampler.sampleProbability = sampleProbability;
+        RootSampler.maxRootsPerSecond = maxRootsPerSecond;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns tracking on or off from the next root call on, calls already being tracked finish their trees.
+     */
+    public static void setEnabled(boolean enabled) {
+        RootSampler.enabled = enabled;
+    }
+
+    public static int sampleEvery() {
+        return sampleEvery;
+    }
+
+    public static double sampleProbability() {
+        return sampleProbability;
+    }
+
+    public static int maxRootsPerSecond() {
+        return maxRootsPerSecond;
+    }
+
+    public static boolean sample(Agent.WorkContext ctx) {
+        if (!enabled) {
+            return false;
+        }
+
+        int every = sampleEvery;
+        if (every > 1 && ++ctx.rootCallsSinceSample < every) {
+            return false;
+        }
+        ctx.rootCallsSinceSample = 0;
+
+        double probability = sampleProbability;
+        if (probability < 1.0 && ThreadLocalRandom.current().nextDouble() >= probability) {
+            return false;
+        }
+
+        int limit = maxRootsPerSecond;
+        return limit <= 0 || acquireRatePermit(limit);
+    }
+
+    private static boolean acquireRatePermit(int limit) {
+        long now = System.nanoTime();
+        long secondStart = currentSecondStart.get();
+        if (now - secondStart >= SECOND_NANOS && currentSecondStart.compareAndSet(secondStart, now)) {
+            rootsInCurrentSecond.set(0);
+        }
+
+        // cheap read first, so a saturated second doesn't turn into a CAS storm
+        return rootsInCurrentSecond.get() < limit && rootsInCurrentSecond.incrementAndGet() <= limit;
+    }
+}
@@ -0,0 +1,113 @@
+package net.populatorscanner.agent;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters about the agent itself, updated from the advice on every intercepted call. Timing {@code pre}/{@code post} costs
+ * two extra {@link System#nanoTime()} calls each, so it is only done with {@value #SELF_TIMING_KEY} enabled.
+ */
+public final class ScannerStats {
+
+    public static final String SELF_TIMING_KEY = "selfTiming";
+
+    private static volatile boolean selfTiming = AgentConfig.getBoolean(SELF_TIMING_KEY, false);
+
+    private static final LongAdder interceptedCalls = new LongAdder();
+    private static final LongAdder allocatedNodes = new LongAdder();
+    private static final LongAdder completedRootTrees = new LongAdder();
+    private static final LongAdder asyncTreesAdopted = new LongAdder();
+    private static final LongAdder asyncTreesOutlivedParent = new LongAdder();
+    private static final LongAdder preNanos = new LongAdder();
+    private static final LongAdder postNanos = new LongAdder();
+
+    private ScannerStats() {
+    }
+
+    public static boolean isSelfTiming() {
+        return selfTiming;
+    }
+
+    public static void setSelfTiming(boolean selfTiming) {
+        ScannerStats.selfTiming = selfTiming;
+    }
+
+    /**
+     * Counts an intercepted call and starts timing the advice.
+     *
+     * @return the start to hand to {@link #preDone(long)}, 0 when self timing is off
+     */
+    public static long preStart() {
+        interceptedCalls.increment();
+        return selfTiming ? System.nanoTime() : 0L;
+    }
+
+    public static void preDone(long start) {
+        if (start != 0L) {
+            preNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    public static long postStart() {
+        return selfTiming ? System.nanoTime() : 0L;
+    }
+
+    public static void postDone(long start) {
+        if (start != 0L) {
+            postNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    public static void nodeAllocated() {
+        allocatedNodes.increment();
+    }
+
+    public static void rootTreeCompleted() {
+        completedRootTrees.increment();
+    }
+
+    public static void asyncTreesAdopted(int trees) {
+        asyncTreesAdopted.add(trees);
+    }
+
+    public static void asyncTreeOutlivedParent() {
+        asyncTreesOutlivedParent.increment();
+    }
+
+    public static long interceptedCalls() {
+        return interceptedCalls.sum();
+    }
+
+    public static long allocatedNodes() {
+        return allocatedNodes.sum();
+    }
+
+    public static long completedRootTrees() {
+        return completedRootTrees.sum();
+    }
+
+    public static long asyncTreesAdopted() {
+        return asyncTreesAdopted.sum();
+    }
+
+    public static long asyncTreesOutlivedParent() {
+        return asyncTreesOutlivedParent.sum();
+    }
+
+    public static long preNanos() {
+        return preNanos.sum();
+    }
+
+    public static long postNanos() {
+        return postNanos.sum();
+    }
+
+    public static void reset() {
+        interceptedCalls.reset();
+        allocatedNodes.reset();
+        completedRootTrees.reset();
+        asyncTreesAdopted.reset();
+        asyncTreesOutlivedParent.reset();
+        preNanos.reset();
+        postNanos.reset();
+    }
+}
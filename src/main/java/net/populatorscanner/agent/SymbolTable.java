@@ -0,0 +1,72 @@
+package net.populatorscanner.agent;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global table of interned class names, type names and call sites.
+ * <p>
+ * Every distinct name gets a compact, never reused int id, so call nodes only carry ids and compare them with plain integer
+ * comparisons. Names are looked up again only when a tree is rendered. Id {@link #UNKNOWN} is reserved for "no name" and resolves
+ * to {@code null}.
+ */
+public final class SymbolTable {
+
+    public static final int UNKNOWN = 0;
+
+    private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private static final Object lock = new Object();
+    private static volatile String[] names = new String[1024];
+    private static int size = 1;
+
+    private static final ClassValue<Integer> classIds = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return intern(type.getTypeName());
+        }
+    };
+
+    private SymbolTable() {
+    }
+
+    public static int intern(String name) {
+        if (name == null) {
+            return UNKNOWN;
+        }
+
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+
+        synchronized (lock) {
+            id = ids.get(name);
+            if (id == null) {
+                String[] current = names;
+                if (size == current.length) {
+                    current = Arrays.copyOf(current, current.length * 2);
+                }
+                id = size++;
+                current[id] = name;
+                names = current;
+                ids.put(name, id);
+            }
+            return id;
+        }
+    }
+
+    public static int ofClass(Class<?> type) {
+        return classIds.get(type);
+    }
+
+    public static String name(int id) {
+        String[] current = names;
+        return id > UNKNOWN && id < current.length ? current[id] : null;
+    }
+
+    public static int size() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package net.populatorscanner.agent;
+
+/**
+ * Bounds the memory a single root tree can take: at most {@value #MAX_NODES_KEY} nodes (default
+ * {@value #DEFAULT_MAX_NODES}) and {@value #MAX_DEPTH_KEY} levels (default {@value #DEFAULT_MAX_DEPTH}). Calls past either
+ * limit, and everything they call in turn, don't get nodes of their own; they are only counted per class on the last node that
+ * was retained.
+ */
+public final class TreeBudget {
+
+    public static final String MAX_NODES_KEY = "maxNodesPerRoot";
+    public static final String MAX_DEPTH_KEY = "maxDepth";
+
+    public static final int DEFAULT_MAX_NODES = 100_000;
+    public static final int DEFAULT_MAX_DEPTH = 500;
+
+    private static volatile int maxNodes = AgentConfig.getInt(MAX_NODES_KEY, DEFAULT_MAX_NODES);
+    private static volatile int maxDepth = AgentConfig.getInt(MAX_DEPTH_KEY, DEFAULT_MAX_DEPTH);
+
+    private TreeBudget() {
+    }
+
+    public static int maxNodes() {
+        return maxNodes;
+    }
+
+    public static int maxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @param maxNodes nodes per root tree, 0 or less means unlimited
+     * @param maxDepth levels per root tree, 0 or less means unlimited
+     */
+    public static void configure(int maxNodes, int maxDepth) {
+        TreeBudget.maxNodes = maxNodes;
+        TreeBudget.maxDepth = maxDepth;
+    }
+
+    /**
+     * Whether the open root tree of the thread has no room for another child node.
+     */
+    public static boolean exhausted(Agent.WorkContext ctx) {
+        int nodes = maxNodes;
+        int depth = maxDepth;
+        return (nodes > 0 && ctx.rootNodes >= nodes) || (depth > 0 && ctx.depth >= depth);
+    }
+}
@@ -0,0 +1,204 @@
+package net.populatorscanner.agent.async;
+
+import net.populatorscanner.agent.Agent.WorkContext;
+import net.populatorscanner.agent.ConverterCallNode;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Carries the tracking context of the submitting thread over to the thread that runs a task. A task submitted inside a
+ * tracked call captures that call; root calls on the worker are then tracked regardless of sampling and their completed trees
+ * are handed to the captured call through {@link ConverterCallNode#offerAsyncChildCall(ConverterCallNode)}. A task submitted
+ * inside an unsampled root call leaves its root calls unsampled as well.
+ * <p>
+ * Submitting outside of any converter call only costs a {@link ThreadLocal} lookup, and never creates a {@link WorkContext}. A
+ * worker without one gets it for the duration of the task only, so short-lived (virtual) threads don't keep any.
+ * <p>
+ * Runnables and callables are wrapped on submission. Forked {@link ForkJoinTask}s, e.g. the subtasks of a parallel stream,
+ * can't be wrapped, their context waits in {@link #forkedTasks} until they are executed. A fork that never is, e.g. a
+ * cancelled subtask, is dropped from there once it is collected.
+ */
+public final class AsyncContext extends AsyncTaskHook {
+
+    private static final ForkedTasks<Captured> forkedTasks = new ForkedTasks<>();
+
+    private AsyncContext() {
+    }
+
+    public static void install() {
+        AsyncTaskHook.install(new AsyncContext());
+    }
+
+    public static void uninstall() {
+        AsyncTaskHook.install(null);
+        forkedTasks.clear();
+    }
+
+    @Override
+    public Runnable wrap(Runnable task) {
+        if (task instanceof ContextRunnable) {
+            return task;
+        }
+        Captured captured = capture(task);
+        return captured != null ? new ContextRunnable(task, captured) : task;
+    }
+
+    @Override
+    public <V> Callable<V> wrap(Callable<V> task) {
+        if (task instanceof ContextCallable) {
+            return task;
+        }
+        Captured captured = capture(task);
+        return captured != null ? new ContextCallable<>(task, captured) : task;
+    }
+
+    @Override
+    public void fork(ForkJoinTask<?> task) {
+        Captured captured = capture(task);
+        if (captured != null) {
+            forkedTasks.put(task, captured);
+        }
+    }
+
+    @Override
+    public Object beforeExec(ForkJoinTask<?> task) {
+        if (forkedTasks.isEmpty()) {
+            return null;
+        }
+        Captured captured = forkedTasks.remove(task);
+        return captured != null ? captured.attach() : null;
+    }
+
+    @Override
+    public void afterExec(Object state) {
+        ((Attached) state).detach();
+    }
+
+    private static Captured capture(Object task) {
+        WorkContext ctx = WorkContext.peek();
+        if (ctx == null) {
+            return null;
+        }
+
+        if (ctx.lastRootCall != null) {
+            // a virtual thread that is unparked from inside a converter call is not a task of it
+            if (task.getClass().getName().startsWith("java.lang.VirtualThread")) {
+                return null;
+            }
+            ctx.lastRootCall.asyncCaptured = true;
+            return new Captured(ctx.lastRootCall, false);
+        }
+        if (ctx.unsampledDepth > 0 || ctx.asyncUnsampled) {
+            return Captured.UNSAMPLED;
+        }
+        // a task submitting more tasks outside of a converter call passes on what it got
+        return ctx.asyncParent != null ? new Captured(ctx.asyncParent, false) : null;
+    }
+
+    private static final class Captured {
+
+        private static final Captured UNSAMPLED = new Captured(null, true);
+
+        private final ConverterCallNode parent;
+        private final boolean unsampled;
+
+        private Captured(ConverterCallNode parent, boolean unsampled) {
+            this.parent = parent;
+            this.unsampled = unsampled;
+        }
+
+        private Attached attach() {
+            WorkContext ctx = WorkContext.peek();
+            boolean created = ctx == null;
+            if (created) {
+                ctx = WorkContext.current();
+            }
+            Attached attached = new Attached(ctx, ctx.asyncParent, ctx.asyncUnsampled, created);
+            ctx.asyncParent = parent;
+            ctx.asyncUnsampled = unsampled;
+            return attached;
+        }
+    }
+
+    /**
+     * What a worker thread had before a task's context was attached, restored when the task is done. The task may run
+     * inline on a thread in the middle of its own converter call, e.g. a fork join task that is joined by its submitter.
+     * Its calls then simply nest into that call.
+     */
+    private static final class Attached {
+
+        private final WorkContext ctx;
+        private final ConverterCallNode previousParent;
+        private final boolean previousUnsampled;
+        private final boolean created;
+
+        private Attached(WorkContext ctx, ConverterCallNode previousParent, boolean previousUnsampled, boolean created) {
+            this.ctx = ctx;
+            this.previousParent = previousParent;
+            this.previousUnsampled = previousUnsampled;
+            this.created = created;
+        }
+
+        private void detach() {
+            if (created) {
+                WorkContext.remove();
+            } else {
+                ctx.asyncParent = previousParent;
+                ctx.asyncUnsampled = previousUnsampled;
+            }
+        }
+    }
+
+    private static final class ContextRunnable implements Runnable {
+
+        private final Runnable task;
+        private final Captured captured;
+
+        private ContextRunnable(Runnable task, Captured captured) {
+            this.task = task;
+            this.captured = captured;
+        }
+
+        @Override
+        public void run() {
+            Attached attached = captured.attach();
+            try {
+                task.run();
+            } finally {
+                attached.detach();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return task.toString();
+        }
+    }
+
+    private static final class ContextCallable<V> implements Callable<V> {
+
+        private final Callable<V> task;
+        private final Captured captured;
+
+        private ContextCallable(Callable<V> task, Captured captured) {
+            this.task = task;
+            this.captured = captured;
+        }
+
+        @Override
+        public V call() throws Exception {
+            Attached attached = captured.attach();
+            try {
+                return task.call();
+            } finally {
+                attached.detach();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return task.toString();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package net.populatorscanner.agent.async;
+
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.agent.builder.ResettableClassFileTransformer;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.dynamic.ClassFileLocator;
+import net.bytebuddy.dynamic.loading.ClassInjector;
+import net.bytebuddy.matcher.ElementMatchers;
+import net.populatorscanner.agent.AgentConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.instrument.Instrumentation;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+
+import static net.populatorscanner.log.LogUtils.LOGGER;
+
+/**
+ * Instruments the JDK executors so that converter calls in tasks submitted from inside a converter call attach to the
+ * submitting call instead of starting trees of their own, see {@link AsyncContext}. Off unless {@value #KEY} is set.
+ * <p>
+ * Covered are {@code execute}/{@code submit} of {@link java.util.concurrent.ThreadPoolExecutor} (and so
+ * {@code Executors.newFixedThreadPool} and friends), {@link java.util.concurrent.ForkJoinPool} (including
+ * {@code CompletableFuture.*Async} and the common pool), the virtual thread per task executor, and {@link ForkJoinTask#fork()}
+ * as used by parallel streams. Scheduled executors and plain {@code Thread.start()} are not. A thread pool's
+ * {@code beforeExecute}/{@code afterExecute} sees the wrapper instead of the submitted runnable, for tasks submitted from
+ * inside a converter call only.
+ * <p>
+ * The JDK classes are already loaded when the agent starts, so they are always retransformed, and {@link AsyncTaskHook} is
+ * injected into the bootstrap class loader for the advice to reach the agent.
+ */
+public final class AsyncPropagation {
+
+    public static final String KEY = "asyncPropagation";
+
+    private static final String HOOK_CLASS_NAME = "net.populatorscanner.agent.async.AsyncTaskHook";
+
+    private static final String[] EXECUTOR_CLASS_NAMES = {
+            "java.util.concurrent.ThreadPoolExecutor",
+            "java.util.concurrent.ForkJoinPool",
+            "java.util.concurrent.ThreadPerTaskExecutor"
+    };
+
+    private static boolean hookInjected;
+    private static ResettableClassFileTransformer transformer;
+
+    private AsyncPropagation() {
+    }
+
+    public static boolean isEnabled() {
+        return AgentConfig.getBoolean(KEY, false);
+    }
+
+    public static synchronized void install(Instrumentation inst, File temp) throws IOException, ClassNotFoundException {
+        if (transformer != null) {
+            return;
+        }
+
+        if (!hookInjected) {
+            // by name, so the agent's class loader never defines a copy of its own before the bootstrap one exists
+            byte[] hook = ClassFileLocator.ForClassLoader.of(AsyncPropagation.class.getClassLoader()).locate(HOOK_CLASS_NAME).resolve();
+            ClassInjector.UsingInstrumentation.of(temp, ClassInjector.UsingInstrumentation.Target.BOOTSTRAP, inst)
+                    .injectRaw(Collections.singletonMap(HOOK_CLASS_NAME, hook));
+            hookInjected = true;
+        }
+        AsyncContext.install();
+
+        transformer = new AgentBuilder.Default()
+                .disableClassFormatChanges()
+                .with(AgentBuilder.RedefinitionStrategy.RETRANSFORMATION)
+                .ignore(ElementMatchers.nameStartsWith("net.bytebuddy."))
+                // java.base has to read the bootstrap unnamed module the hook lives in
+                .assureReadEdgeTo(inst, Class.forName(HOOK_CLASS_NAME, false, null))
+                .type(ElementMatchers.namedOneOf(EXECUTOR_CLASS_NAMES))
+                .transform((builder, typeDescription, classLoader, module) -> builder
+                        .visit(Advice.to(RunnableSubmission.class).on(ElementMatchers.<MethodDescription>namedOneOf("execute", "submit")
+                                .and(ElementMatchers.takesArgument(0, Runnable.class))))
+                        .visit(Advice.to(CallableSubmission.class).on(ElementMatchers.<MethodDescription>named("submit")
+                                .and(ElementMatchers.takesArgument(0, Callable.class)))))
+                .type(ElementMatchers.named(ForkJoinTask.class.getName()))
+                .transform((builder, typeDescription, classLoader, module) -> builder
+                        .visit(Advice.to(Fork.class).on(ElementMatchers.<MethodDescription>named("fork")
+                                .and(ElementMatchers.takesArguments(0))))
+                        .visit(Advice.to(Exec.class).on(ElementMatchers.named("doExec"))))
+                .installOn(inst);
+        LOGGER.info("Propagating converter calls to executor tasks");
+    }
+
+    /**
+     * Turns the hooks off and restores the original executor bytecode.
+     */
+    public static synchronized void detach(Instrumentation inst) {
+        if (transformer == null) {
+            return;
+        }
+
+        AsyncContext.uninstall();
+        transformer.reset(inst, AgentBuilder.RedefinitionStrategy.RETRANSFORMATION);
+        transformer = null;
+    }
+
+    public static class RunnableSubmission {
+
+        @Advice.OnMethodEnter
+        public static void enter(@Advice.Argument(value = 0, readOnly = false) Runnable task) {
+            task = AsyncTaskHook.wrapRunnable(task);
+        }
+    }
+
+    public static class CallableSubmission {
+
+        @Advice.OnMethodEnter
+        public static void enter(@Advice.Argument(value = 0, readOnly = false) Callable<?> task) {
+            task = AsyncTaskHook.wrapCallable(task);
+        }
+    }
+
+    public static class Fork {
+
+        @Advice.OnMethodEnter
+        public static void enter(@Advice.This ForkJoinTask<?> task) {
+            AsyncTaskHook.forking(task);
+        }
+    }
+
+    public static class Exec {
+
+        @Advice.OnMethodEnter
+        public static Object enter(@Advice.This ForkJoinTask<?> task) {
+            return AsyncTaskHook.executing(task);
+        }
+
+        @Advice.OnMethodExit(onThrowable = Throwable.class)
+        public static void exit(@Advice.Enter Object state) {
+            AsyncTaskHook.executed(state);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package net.populatorscanner.agent.async;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Bridge between the advice inlined into the JDK executors and the agent. It is injected into the bootstrap class loader,
+ * where {@code java.util.concurrent} can see it, so it must not refer to anything but JDK types. The agent side is
+ * {@link AsyncContext}, plugged in once the executors are instrumented; until then, and after a detach, every hook is a no-op.
+ */
+public abstract class AsyncTaskHook {
+
+    private static volatile AsyncTaskHook installed;
+
+    public static void install(AsyncTaskHook hook) {
+        installed = hook;
+    }
+
+    public static Runnable wrapRunnable(Runnable task) {
+        AsyncTaskHook hook = installed;
+        return hook != null && task != null ? hook.wrap(task) : task;
+    }
+
+    public static <V> Callable<V> wrapCallable(Callable<V> task) {
+        AsyncTaskHook hook = installed;
+        return hook != null && task != null ? hook.wrap(task) : task;
+    }
+
+    public static void forking(ForkJoinTask<?> task) {
+        AsyncTaskHook hook = installed;
+        if (hook != null) {
+            hook.fork(task);
+        }
+    }
+
+    /**
+     * @return the state to hand to {@link #executed(Object)} once the task is done
+     */
+    public static Object executing(ForkJoinTask<?> task) {
+        AsyncTaskHook hook = installed;
+        return hook != null ? hook.beforeExec(task) : null;
+    }
+
+    public static void executed(Object state) {
+        AsyncTaskHook hook = installed;
+        if (hook != null && state != null) {
+            hook.afterExec(state);
+        }
+    }
+
+    public abstract Runnable wrap(Runnable task);
+
+    public abstract <V> Callable<V> wrap(Callable<V> task);
+
+    public abstract void fork(ForkJoinTask<?> task);
+
+    public abstract Object beforeExec(ForkJoinTask<?> task);
+
+    public abstract void afterExec(Object state);
+}
@@ -0,0 +1,159 @@
+package net.populatorscanner.agent.async;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Identity table from forked tasks to the context they captured. Tasks are only weakly referenced, so a fork that is never
+ * executed, e.g. a cancelled subtask, doesn't stay reachable through its entry; entries of collected tasks are expunged on
+ * the next insert into or removal from the same segment. Segments are locked separately, so forks on different workers rarely contend.
+ */
+final class ForkedTasks<V> {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment<V>[] segments;
+    private final AtomicInteger size = new AtomicInteger();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ForkedTasks() {
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>(size);
+        }
+    }
+
+    boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    void put(Object task, V value) {
+        int hash = System.identityHashCode(task);
+        segment(hash).put(task, hash, value);
+    }
+
+    V remove(Object task) {
+        int hash = System.identityHashCode(task);
+        return segment(hash).remove(task, hash);
+    }
+
+    void clear() {
+        for (Segment<V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    private Segment<V> segment(int hash) {
+        // the low bits pick the bucket within a segment
+        return segments[(hash >>> 16) & (SEGMENTS - 1)];
+    }
+
+    private static final class Segment<V> {
+
+        private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+        private final AtomicInteger tableSize;
+        private Entry<V>[] buckets = newBuckets(16);
+        private int size;
+
+        private static final class Entry<V> extends WeakReference<Object> {
+
+            private final int hash;
+            private final V value;
+            private Entry<V> next;
+
+            private Entry(Object task, ReferenceQueue<Object> queue, int hash, V value, Entry<V> next) {
+                super(task, queue);
+                this.hash = hash;
+                this.value = value;
+                this.next = next;
+            }
+        }
+
+        private Segment(AtomicInteger tableSize) {
+            this.tableSize = tableSize;
+        }
+
+        synchronized void put(Object task, int hash, V value) {
+            expungeCollected();
+            if (size >= buckets.length * 3 / 4) {
+                resize();
+            }
+
+            int bucket = hash & (buckets.length - 1);
+            buckets[bucket] = new Entry<>(task, collected, hash, value, buckets[bucket]);
+            size++;
+            tableSize.incrementAndGet();
+        }
+
+        synchronized V remove(Object task, int hash) {
+            expungeCollected();
+            int bucket = hash & (buckets.length - 1);
+            Entry<V> previous = null;
+            for (Entry<V> entry = buckets[bucket]; entry != null; previous = entry, entry = entry.next) {
+                if (entry.hash == hash && entry.get() == task) {
+                    unlink(bucket, previous, entry);
+                    entry.clear();
+                    return entry.value;
+                }
+            }
+            return null;
+        }
+
+        synchronized void clear() {
+            tableSize.addAndGet(-size);
+            buckets = newBuckets(16);
+            size = 0;
+            while (collected.poll() != null) {
+                // the entries are gone already
+            }
+        }
+
+        private void expungeCollected() {
+            Reference<?> reference;
+            while ((reference = collected.poll()) != null) {
+                @SuppressWarnings("unchecked")
+                Entry<V> stale = (Entry<V>) reference;
+                int bucket = stale.hash & (buckets.length - 1);
+                Entry<V> previous = null;
+                for (Entry<V> entry = buckets[bucket]; entry != null; previous = entry, entry = entry.next) {
+                    if (entry == stale) {
+                        unlink(bucket, previous, entry);
+                        break;
+                    }
+                }
+            }
+        }
+
+        private void unlink(int bucket, Entry<V> previous, Entry<V> entry) {
+            if (previous == null) {
+                buckets[bucket] = entry.next;
+            } else {
+                previous.next = entry.next;
+            }
+            size--;
+            tableSize.decrementAndGet();
+        }
+
+        private void resize() {
+            Entry<V>[] previous = buckets;
+            buckets = newBuckets(previous.length * 2);
+            for (Entry<V> head : previous) {
+                Entry<V> entry = head;
+                while (entry != null) {
+                    Entry<V> next = entry.next;
+                    int bucket = entry.hash & (buckets.length - 1);
+                    entry.next = buckets[bucket];
+                    buckets[bucket] = entry;
+                    entry = next;
+                }
+            }
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static <V> Entry<V>[] newBuckets(int length) {
+            return new Entry[length];
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package net.populatorscanner.agent.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * Common fields of the converter and populator invocation events. Stack traces are off by default, the call site already
+ * points at the caller, and can be switched on through the recording settings like for any other event.
+ */
+@Category({"Populator Scanner"})
+@StackTrace(false)
+public abstract class InvocationEvent extends jdk.jfr.Event {
+
+    @Label("Class")
+    @Description("Instrumented converter or populator class")
+    public String clazz;
+
+    @Label("Source Type")
+    public String sourceType;
+
+    @Label("Target Type")
+    public String targetType;
+
+    @Label("Call Site")
+    @Description("File name and line number of the caller")
+    public String callSite;
+
+    @Label("Depth")
+    @Description("Nesting depth below the root conversion, 0 for the root itself")
+    public int depth;
+}
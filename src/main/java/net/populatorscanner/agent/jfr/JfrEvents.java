@@ -0,0 +1,56 @@
+package net.populatorscanner.agent.jfr;
+
+import net.populatorscanner.agent.Agent;
+import net.populatorscanner.agent.CallSourceCapture;
+import net.populatorscanner.agent.ConverterMetadata;
+import net.populatorscanner.agent.SymbolTable;
+
+import java.util.Arrays;
+
+/**
+ * Emits a {@link ConverterInvocationEvent} or {@link PopulatorInvocationEvent} per intercepted call instead of building call
+ * trees. When the event type is disabled in the running recordings, nothing but the depth bookkeeping happens; no call site is
+ * captured and no event is kept.
+ */
+public final class JfrEvents {
+
+    private JfrEvents() {
+    }
+
+    public static void begin(Agent.WorkContext ctx, String clazz, int classId, boolean populator, Object[] wraps, Object thiz) {
+        InvocationEvent event = populator ? new PopulatorInvocationEvent() : new ConverterInvocationEvent();
+        if (!event.isEnabled()) {
+            push(ctx, null);
+            return;
+        }
+
+        ConverterMetadata metadata = ConverterMetadata.of(thiz.getClass());
+        event.clazz = SymbolTable.name(classId);
+        event.sourceType = wraps.length > 0 && wraps[0] != null ? wraps[0].getClass().getTypeName() : SymbolTable.name(metadata.sourceTypeId);
+        event.targetType = SymbolTable.name(metadata.targetTypeId);
+        event.callSite = SymbolTable.name(CallSourceCapture.capture(clazz));
+        event.depth = ctx.jfrDepth;
+        push(ctx, event);
+        event.begin();
+    }
+
+    public static void end(Agent.WorkContext ctx) {
+        InvocationEvent event = (InvocationEvent) ctx.jfrEvents[--ctx.jfrDepth];
+        ctx.jfrEvents[ctx.jfrDepth] = null;
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.commit();
+            }
+        }
+    }
+
+    private static void push(Agent.WorkContext ctx, InvocationEvent event) {
+        if (ctx.jfrEvents == null) {
+            ctx.jfrEvents = new Object[16];
+        } else if (ctx.jfrDepth == ctx.jfrEvents.length) {
+            ctx.jfrEvents = Arrays.copyOf(ctx.jfrEvents, ctx.jfrEvents.length * 2);
+        }
+        ctx.jfrEvents[ctx.jfrDepth++] = event;
+    }
+}
@@ -0,0 +1,11 @@
+package net.populatorscanner.agent.jfr;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Name("net.populatorscanner.PopulatorInvocation")
+@Label("Populator Invocation")
+@Threshold("0 ms")
+public class PopulatorInvocationEvent extends InvocationEvent {
+}
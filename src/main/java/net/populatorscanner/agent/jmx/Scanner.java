@@ -0,0 +1,279 @@
+package net.populatorscanner.agent.jmx;
+
+import net.populatorscanner.agent.AggregateProfile;
+import net.populatorscanner.agent.AllocationTracker;
+import net.populatorscanner.agent.AsyncTreeRenderer;
+import net.populatorscanner.agent.ClassAllocationProfile;
+import net.populatorscanner.agent.ClassLatencyHistograms;
+import net.populatorscanner.agent.ConverterTypeMatcher;
+import net.populatorscanner.agent.OutputMode;
+import net.populatorscanner.agent.RedundantConversions;
+import net.populatorscanner.agent.RequestScopeProfile;
+import net.populatorscanner.agent.RootSampler;
+import net.populatorscanner.agent.ScannerStats;
+import net.populatorscanner.agent.TreeBudget;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static net.populatorscanner.log.LogUtils.LOGGER;
+
+/**
+ * The {@link ScannerMBean} of the agent, a thin layer over the static settings and counters of the scanner's classes. Settings
+ * changed here apply right away and are lost on a restart; profiles and histograms are only cleared by their own operations,
+ * not by {@link #resetStatistics()}.
+ */
+public final class Scanner implements ScannerMBean {
+
+    public static final String OBJECT_NAME = "net.populatorscanner:type=Scanner";
+
+    /**
+     * Registers the MBean with the platform MBean server, unless an earlier attach already did.
+     */
+    public static void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new Scanner(), name);
+            }
+        } catch (Exception e) {
+            LOGGER.error("Couldn't register the {} MBean: {}", OBJECT_NAME, e);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return RootSampler.isEnabled();
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        RootSampler.setEnabled(enabled);
+    }
+
+    @Override
+    public int getSampleEvery() {
+        return RootSampler.sampleEvery();
+    }
+
+    @Override
+    public void setSampleEvery(int sampleEvery) {
+        RootSampler.configure(sampleEvery, RootSampler.sampleProbability(), RootSampler.maxRootsPerSecond());
+    }
+
+    @Override
+    public double getSampleProbability() {
+        return RootSampler.sampleProbability();
+    }
+
+    @Override
+    public void setSampleProbability(double sampleProbability) {
+        RootSampler.configure(RootSampler.sampleEvery(), sampleProbability, RootSampler.maxRootsPerSecond());
+    }
+
+    @Override
+    public int getMaxRootsPerSecond() {
+        return RootSampler.maxRootsPerSecond();
+    }
+
+    @Override
+    public void setMaxRootsPerSecond(int maxRootsPerSecond) {
+        RootSampler.configure(RootSampler.sampleEvery(), RootSampler.sampleProbability(), maxRootsPerSecond);
+    }
+
+    @Override
+    public long getLogThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(AsyncTreeRenderer.logThresholdNanos());
+    }
+
+    @Override
+    public void setLogThresholdMillis(long logThresholdMillis) {
+        AsyncTreeRenderer.setLogThresholdNanos(TimeUnit.MILLISECONDS.toNanos(logThresholdMillis));
+    }
+
+    @Override
+    public int getMaxNodesPerRoot() {
+        return TreeBudget.maxNodes();
+    }
+
+    @Override
+    public void setMaxNodesPerRoot(int maxNodesPerRoot) {
+        TreeBudget.configure(maxNodesPerRoot, TreeBudget.maxDepth());
+    }
+
+    @Override
+    public int getMaxDepth() {
+        return TreeBudget.maxDepth();
+    }
+
+    @Override
+    public void setMaxDepth(int maxDepth) {
+        TreeBudget.configure(TreeBudget.maxNodes(), maxDepth);
+    }
+
+    @Override
+    public String getOutputMode() {
+        return OutputMode.current().name();
+    }
+
+    @Override
+    public void setOutputMode(String outputMode) {
+        OutputMode.set(OutputMode.valueOf(outputMode.trim().toUpperCase(Locale.ROOT)));
+    }
+
+    @Override
+    public boolean isSelfTiming() {
+        return ScannerStats.isSelfTiming();
+    }
+
+    @Override
+    public void setSelfTiming(boolean selfTiming) {
+        ScannerStats.setSelfTiming(selfTiming);
+    }
+
+    @Override
+    public boolean isAllocationTracking() {
+        return AllocationTracker.isEnabled();
+    }
+
+    @Override
+    public void setAllocationTracking(boolean allocationTracking) {
+        AllocationTracker.setEnabled(allocationTracking);
+    }
+
+    @Override
+    public boolean isLatencyHistograms() {
+        return ClassLatencyHistograms.isEnabled();
+    }
+
+    @Override
+    public void setLatencyHistograms(boolean latencyHistograms) {
+        ClassLatencyHistograms.setEnabled(latencyHistograms);
+    }
+
+    @Override
+    public boolean isRedundantConversions() {
+        return RedundantConversions.isEnabled();
+    }
+
+    @Override
+    public void setRedundantConversions(boolean redundantConversions) {
+        RedundantConversions.setEnabled(redundantConversions);
+    }
+
+    @Override
+    public long getInterceptedCalls() {
+        return ScannerStats.interceptedCalls();
+    }
+
+    @Override
+    public long getAllocatedNodes() {
+        return ScannerStats.allocatedNodes();
+    }
+
+    @Override
+    public long getCompletedRootTrees() {
+        return ScannerStats.completedRootTrees();
+    }
+
+    @Override
+    public long getAsyncTreesAdopted() {
+        return ScannerStats.asyncTreesAdopted();
+    }
+
+    @Override
+    public long getAsyncTreesOutlivedParent() {
+        return ScannerStats.asyncTreesOutlivedParent();
+    }
+
+    @Override
+    public long getSubmittedTrees() {
+        return AsyncTreeRenderer.submittedTrees();
+    }
+
+    @Override
+    public long getRenderedTrees() {
+        return AsyncTreeRenderer.renderedTrees();
+    }
+
+    @Override
+    public long getDroppedTrees() {
+        return AsyncTreeRenderer.droppedTrees();
+    }
+
+    @Override
+    public long getTreesBelowLogThreshold() {
+        return AsyncTreeRenderer.treesBelowLogThreshold();
+    }
+
+    @Override
+    public int getRenderQueueDepth() {
+        return AsyncTreeRenderer.queueDepth();
+    }
+
+    @Override
+    public long getPreNanos() {
+        return ScannerStats.preNanos();
+    }
+
+    @Override
+    public long getPostNanos() {
+        return ScannerStats.postNanos();
+    }
+
+    @Override
+    public long getExaminedTypes() {
+        return ConverterTypeMatcher.examinedTypes();
+    }
+
+    @Override
+    public long getMatchedTypes() {
+        return ConverterTypeMatcher.matchedTypes();
+    }
+
+    @Override
+    public long getTypeMatchingNanos() {
+        return ConverterTypeMatcher.matchingNanos();
+    }
+
+    @Override
+    public void resetStatistics() {
+        ScannerStats.reset();
+        AsyncTreeRenderer.resetStatistics();
+        ConverterTypeMatcher.resetStatistics();
+    }
+
+    @Override
+    public void dumpAggregateProfile() {
+        AggregateProfile.dump();
+    }
+
+    @Override
+    public void dumpAllocationProfile() {
+        ClassAllocationProfile.dump();
+    }
+
+    @Override
+    public void dumpRequestScopeProfile() {
+        RequestScopeProfile.dump();
+    }
+
+    @Override
+    public void dumpRedundantConversions() {
+        RedundantConversions.dump();
+    }
+
+    @Override
+    public void dumpLatencyHistograms() {
+        ClassLatencyHistograms.dump();
+    }
+
+    @Override
+    public void resetLatencyHistograms() {
+        ClassLatencyHistograms.reset();
+    }
+}
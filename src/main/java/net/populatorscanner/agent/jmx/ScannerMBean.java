@@ -0,0 +1,109 @@
+package net.populatorscanner.agent.jmx;
+
+/**
+ * Live control and self statistics of the scanner, registered as {@value Scanner#OBJECT_NAME}.
+ */
+public interface ScannerMBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    int getSampleEvery();
+
+    void setSampleEvery(int sampleEvery);
+
+    double getSampleProbability();
+
+    void setSampleProbability(double sampleProbability);
+
+    int getMaxRootsPerSecond();
+
+    void setMaxRootsPerSecond(int maxRootsPerSecond);
+
+    long getLogThresholdMillis();
+
+    void setLogThresholdMillis(long logThresholdMillis);
+
+    int getMaxNodesPerRoot();
+
+    void setMaxNodesPerRoot(int maxNodesPerRoot);
+
+    int getMaxDepth();
+
+    void setMaxDepth(int maxDepth);
+
+    /**
+     * One of {@code LOG}, {@code AGGREGATE}, {@code FOLDED_STACKS}, {@code JFR} and {@code RING_FILE}, applies from the next root call on.
+     */
+    String getOutputMode();
+
+    void setOutputMode(String outputMode);
+
+    boolean isSelfTiming();
+
+    void setSelfTiming(boolean selfTiming);
+
+    boolean isAllocationTracking();
+
+    /**
+     * Has no effect where the JVM doesn't measure allocated bytes per thread.
+     */
+    void setAllocationTracking(boolean allocationTracking);
+
+    boolean isLatencyHistograms();
+
+    void setLatencyHistograms(boolean latencyHistograms);
+
+    boolean isRedundantConversions();
+
+    void setRedundantConversions(boolean redundantConversions);
+
+    long getInterceptedCalls();
+
+    long getAllocatedNodes();
+
+    long getCompletedRootTrees();
+
+    long getAsyncTreesAdopted();
+
+    long getAsyncTreesOutlivedParent();
+
+    long getSubmittedTrees();
+
+    long getRenderedTrees();
+
+    long getDroppedTrees();
+
+    long getTreesBelowLogThreshold();
+
+    int getRenderQueueDepth();
+
+    long getPreNanos();
+
+    long getPostNanos();
+
+    long getExaminedTypes();
+
+    long getMatchedTypes();
+
+    long getTypeMatchingNanos();
+
+    /**
+     * Resets the call, render queue and type matching counters; the render queue depth is a live value and the latency
+     * histograms have their own reset.
+     */
+    void resetStatistics();
+
+    void dumpAggregateProfile();
+
+    void dumpAllocationProfile();
+
+    void dumpRequestScopeProfile();
+
+    void dumpRedundantConversions();
+
+    void dumpLatencyHistograms();
+
+    void resetLatencyHistograms();
+}
@@ -0,0 +1,53 @@
+package net.populatorscanner.agent.ring;
+
+import java.nio.ByteOrder;
+
+/**
+ * Layout of the ring file, shared by {@link RingFileRecorder} and {@link RingFileReader}. All values are little endian.
+ * <pre>
+ * header (64 bytes): magic, version, slot size, slot count, epoch millis and nanoTime when the file was created
+ * slot   (40 bytes): stamp, nanoTime, thread id, class id, source type id, target type id, depth, kind
+ * </pre>
+ * The stamp of a slot is the sequence number of the event in it plus one, written last with release semantics. A slot whose
+ * stamp is 0 or doesn't belong to the slot's position was never written completely and is skipped by the reader.
+ * <p>
+ * The ids are {@link net.populatorscanner.agent.SymbolTable} ids, their names go to a {@value #SYMBOLS_SUFFIX} sidecar file as
+ * {@code id<TAB>name} lines.
+ */
+final class RingFileFormat {
+
+    static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    static final long MAGIC = 0x31304E4952535050L; // "PPSRIN01"
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 64;
+    static final int HEADER_MAGIC = 0;
+    static final int HEADER_VERSION = 8;
+    static final int HEADER_SLOT_SIZE = 12;
+    static final int HEADER_SLOTS = 16;
+    static final int HEADER_EPOCH_MILLIS = 24;
+    static final int HEADER_NANO_TIME = 32;
+
+    static final int SLOT_SIZE = 40;
+    static final int SLOT_STAMP = 0;
+    static final int SLOT_NANO_TIME = 8;
+    static final int SLOT_THREAD_ID = 16;
+    static final int SLOT_CLASS_ID = 20;
+    static final int SLOT_SOURCE_TYPE_ID = 24;
+    static final int SLOT_TARGET_TYPE_ID = 28;
+    static final int SLOT_DEPTH = 32;
+    static final int SLOT_KIND = 34;
+
+    static final byte KIND_ENTER = 1;
+    static final byte KIND_EXIT = 2;
+
+    static final String SYMBOLS_SUFFIX = ".symbols";
+
+    private RingFileFormat() {
+    }
+
+    static long slotOffset(long sequence, long slots) {
+        return HEADER_SIZE + (sequence % slots) * SLOT_SIZE;
+    }
+}
@@ -0,0 +1,177 @@
+package net.populatorscanner.agent.ring;
+
+import net.populatorscanner.agent.ConverterCallNode;
+import net.populatorscanner.agent.SymbolTable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static net.populatorscanner.agent.ring.RingFileFormat.*;
+
+/**
+ * Rebuilds the call trees recorded by {@link RingFileRecorder}, offline:
+ * <pre>
+ * java -cp populator-scanner.jar net.populatorscanner.agent.ring.RingFileReader /tmp/populator-scanner-1234.ring
+ * </pre>
+ * Events are replayed in sequence order per thread. A tree whose beginning was already overwritten in the ring is skipped, one
+ * that never completed (the JVM died or the recording stopped in the middle) is printed as incomplete. The trees carry no call
+ * sources, the recorder doesn't capture them.
+ */
+public final class RingFileReader {
+
+    private final Map<Integer, ThreadReplay> threads = new HashMap<>();
+    private final PrintStream out;
+
+    private RingFileReader(PrintStream out) {
+        this.out = out;
+    }
+
+    private static final class ThreadReplay {
+
+        private ConverterCallNode openCall;
+        private int depth;
+        // depth of an enter whose tree has been overwritten, its events are ignored until the thread is back above it
+        private int skipFromDepth;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: RingFileReader <ring file>");
+            System.exit(1);
+        }
+        new RingFileReader(System.out).read(Paths.get(args[0]));
+    }
+
+    private void read(Path file) throws IOException {
+        loadSymbols(Paths.get(file + SYMBOLS_SUFFIX));
+
+        MappedByteBuffer ring;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ring = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ring.order(BYTE_ORDER);
+        if (ring.getLong(HEADER_MAGIC) != MAGIC || ring.getInt(HEADER_VERSION) != VERSION || ring.getInt(HEADER_SLOT_SIZE) != SLOT_SIZE) {
+            throw new IOException(file + " isn't a ring file of this version");
+        }
+
+        long slots = ring.getLong(HEADER_SLOTS);
+        long[] sequences = new long[(int) slots];
+        int events = 0;
+        for (long slot = 0; slot < slots; slot++) {
+            long stamp = ring.getLong((int) slotOffset(slot, slots) + SLOT_STAMP);
+            if (stamp != 0 && (stamp - 1) % slots == slot) {
+                sequences[events++] = stamp - 1;
+            }
+        }
+        Arrays.sort(sequences, 0, events);
+        out.println(events + " events in " + file);
+
+        for (int i = 0; i < events; i++) {
+            int offset = (int) slotOffset(sequences[i], slots);
+            replay(ring.getInt(offset + SLOT_THREAD_ID), ring.get(offset + SLOT_KIND), ring.getShort(offset + SLOT_DEPTH),
+                    ring.getLong(offset + SLOT_NANO_TIME), ring.getInt(offset + SLOT_CLASS_ID),
+                    ring.getInt(offset + SLOT_SOURCE_TYPE_ID), ring.getInt(offset + SLOT_TARGET_TYPE_ID));
+        }
+
+        for (Map.Entry<Integer, ThreadReplay> thread : threads.entrySet()) {
+            if (thread.getValue().openCall != null) {
+                print(thread.getKey(), thread.getValue().openCall.rootCall(), false);
+            }
+        }
+    }
+
+    private void replay(int threadId, byte kind, int depth, long nanoTime, int classId, int sourceTypeId, int targetTypeId) {
+        ThreadReplay thread = threads.computeIfAbsent(threadId, id -> new ThreadReplay());
+        if (kind == KIND_ENTER) {
+            if (depth == 1) {
+                if (thread.openCall != null) {
+                    // the exits of the previous tree were lost
+                    print(threadId, thread.openCall.rootCall(), false);
+                }
+                thread.openCall = null;
+                thread.skipFromDepth = 0;
+            } else if (thread.skipFromDepth > 0 || thread.openCall == null || depth != thread.depth + 1) {
+                if (thread.skipFromDepth == 0) {
+                    thread.skipFromDepth = depth;
+                }
+                return;
+            }
+
+            ensureSymbol(classId);
+            ConverterCallNode node = new ConverterCallNode(classId, SymbolTable.UNKNOWN, sourceTypeId, targetTypeId);
+            node.startNanos = nanoTime;
+            if (thread.openCall != null) {
+                thread.openCall.childCalls.add(node);
+                node.parentCall = thread.openCall;
+            }
+            thread.openCall = node;
+            thread.depth = depth;
+        } else if (kind == KIND_EXIT) {
+            if (thread.skipFromDepth > 0) {
+                if (depth == thread.skipFromDepth) {
+                    thread.skipFromDepth = 0;
+                }
+                return;
+            }
+            if (thread.openCall == null || depth != thread.depth) {
+                return;
+            }
+
+            ConverterCallNode call = thread.openCall;
+            call.complete(nanoTime);
+            thread.openCall = call.parentCall;
+            thread.depth = depth - 1;
+            if (call.parentCall != null) {
+                call.foldIntoPreviousSibling();
+            } else {
+                print(threadId, call, true);
+            }
+        }
+    }
+
+    private void print(int threadId, ConverterCallNode rootCall, boolean complete) {
+        out.print("thread " + threadId + (complete ? "" : " (incomplete)"));
+        out.println(rootCall.renderTree());
+    }
+
+    /**
+     * Interns the recorded names in id order, so the ids in the file resolve to the same names here.
+     */
+    private static void loadSymbols(Path symbolsFile) throws IOException {
+        if (!Files.exists(symbolsFile)) {
+            return;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(symbolsFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf('\t');
+                if (separator <= 0) {
+                    continue;
+                }
+                ensureSymbol(Integer.parseInt(line.substring(0, separator)) - 1);
+                SymbolTable.intern(line.substring(separator + 1));
+            }
+        }
+    }
+
+    /**
+     * Fills the table up to the id with placeholders, for ids whose names never made it to the sidecar file.
+     */
+    private static void ensureSymbol(int id) {
+        while (SymbolTable.size() <= id) {
+            SymbolTable.intern("#" + SymbolTable.size());
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package net.populatorscanner.agent.ring;
+
+import net.populatorscanner.agent.Agent;
+import net.populatorscanner.agent.AgentConfig;
+import net.populatorscanner.agent.ConverterMetadata;
+import net.populatorscanner.agent.SymbolTable;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.populatorscanner.agent.ring.RingFileFormat.*;
+import static net.populatorscanner.log.LogUtils.LOGGER;
+
+/**
+ * Records an enter and an exit event per intercepted call into a fixed size, memory-mapped ring file instead of building call
+ * trees, see {@link RingFileFormat}. A call costs a sequence number from one atomic counter and a handful of stores into the
+ * mapping, no lock is taken. Once the ring is full the oldest events are overwritten.
+ * <p>
+ * The mapping lives in the page cache, so whatever was recorded survives a crash of the JVM. The symbol names are appended to
+ * the sidecar file every second and on shutdown; {@link RingFileReader} rebuilds the trees offline.
+ * <p>
+ * The file is {@value #FILE_KEY} (default {@code populator-scanner-<pid>.ring} in the temp directory) with
+ * {@value #SLOTS_KEY} events (default {@value #DEFAULT_SLOTS}).
+ */
+public final class RingFileRecorder {
+
+    public static final String FILE_KEY = "ringFile";
+    public static final String SLOTS_KEY = "ringFileSlots";
+
+    public static final int DEFAULT_SLOTS = 1 << 20;
+
+    private static final VarHandle LONG_VIEW = MethodHandles.byteBufferViewVarHandle(long[].class, BYTE_ORDER);
+
+    private static final AtomicLong sequence = new AtomicLong();
+
+    private static volatile MappedByteBuffer buffer;
+    private static long slots;
+    private static Path symbolsFile;
+    private static int writtenSymbols = SymbolTable.UNKNOWN + 1;
+    private static boolean failed;
+
+    private RingFileRecorder() {
+    }
+
+    public static void enter(Agent.WorkContext ctx, int classId, Object[] wraps, Object thiz) {
+        ctx.ringDepth++;
+        ByteBuffer ring = buffer();
+        if (ring == null) {
+            return;
+        }
+
+        ConverterMetadata metadata = ConverterMetadata.of(thiz.getClass());
+        int sourceTypeId = wraps.length > 0 && wraps[0] != null ? SymbolTable.ofClass(wraps[0].getClass()) : metadata.sourceTypeId;
+        write(ring, KIND_ENTER, classId, sourceTypeId, metadata.targetTypeId, ctx.ringDepth);
+    }
+
+    public static void exit(Agent.WorkContext ctx) {
+        ByteBuffer ring = buffer;
+        if (ring != null) {
+            write(ring, KIND_EXIT, SymbolTable.UNKNOWN, SymbolTable.UNKNOWN, SymbolTable.UNKNOWN, ctx.ringDepth);
+        }
+        ctx.ringDepth--;
+    }
+
+    private static void write(ByteBuffer ring, byte kind, int classId, int sourceTypeId, int targetTypeId, int depth) {
+        long nanoTime = System.nanoTime();
+        long eventSequence = sequence.getAndIncrement();
+        int offset = (int) slotOffset(eventSequence, slots);
+
+        // invalidate first, a crash half way through leaves a slot the reader skips
+        LONG_VIEW.setRelease(ring, offset + SLOT_STAMP, 0L);
+        ring.putLong(offset + SLOT_NANO_TIME, nanoTime);
+        ring.putInt(offset + SLOT_THREAD_ID, (int) Thread.currentThread().getId());
+        ring.putInt(offset + SLOT_CLASS_ID, classId);
+        ring.putInt(offset + SLOT_SOURCE_TYPE_ID, sourceTypeId);
+        ring.putInt(offset + SLOT_TARGET_TYPE_ID, targetTypeId);
+        ring.putShort(offset + SLOT_DEPTH, (short) Math.min(depth, Short.MAX_VALUE));
+        ring.put(offset + SLOT_KIND, kind);
+        LONG_VIEW.setRelease(ring, offset + SLOT_STAMP, eventSequence + 1);
+    }
+
+    private static ByteBuffer buffer() {
+        MappedByteBuffer ring = buffer;
+        if (ring == null && !failed) {
+            ring = open();
+        }
+        return ring;
+    }
+
+    private static synchronized MappedByteBuffer open() {
+        if (buffer != null || failed) {
+            return buffer;
+        }
+
+        try {
+            Path file = Paths.get(AgentConfig.getString(FILE_KEY,
+                    Paths.get(System.getProperty("java.io.tmpdir"), "populator-scanner-" + ProcessHandle.current().pid() + ".ring").toString()));
+            long slotCount = AgentConfig.getInt(SLOTS_KEY, DEFAULT_SLOTS);
+            long size = HEADER_SIZE + slotCount * SLOT_SIZE;
+            if (slotCount < 1) {
+                throw new IllegalArgumentException(SLOTS_KEY + " " + slotCount + " leaves no room for a single call");
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(SLOTS_KEY + " " + slotCount + " doesn't fit into a single mapping");
+            }
+
+            MappedByteBuffer ring;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // the mapping stays valid after the channel is closed
+                ring = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+            ring.order(BYTE_ORDER);
+            ring.putLong(HEADER_MAGIC, MAGIC);
+            ring.putInt(HEADER_VERSION, VERSION);
+            ring.putInt(HEADER_SLOT_SIZE, SLOT_SIZE);
+            ring.putLong(HEADER_SLOTS, slotCount);
+            ring.putLong(HEADER_EPOCH_MILLIS, System.currentTimeMillis());
+            ring.putLong(HEADER_NANO_TIME, System.nanoTime());
+
+            slots = slotCount;
+            symbolsFile = Paths.get(file + SYMBOLS_SUFFIX);
+            Files.deleteIfExists(symbolsFile);
+            scheduleSymbolFlushes();
+            LOGGER.info("Recording converter calls to {}", file.toAbsolutePath());
+
+            buffer = ring;
+            return ring;
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            LOGGER.error("Couldn't open the ring file, nothing is recorded: {}", e);
+            return null;
+        }
+    }
+
+    /**
+     * Appends the names interned since the last flush to the sidecar file.
+     */
+    public static synchronized void flushSymbols() {
+        if (symbolsFile == null) {
+            return;
+        }
+
+        int size = SymbolTable.size();
+        if (size == writtenSymbols) {
+            return;
+        }
+        try (Writer writer = Files.newBufferedWriter(symbolsFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE)) {
+            for (int id = writtenSymbols; id < size; id++) {
+                String name = SymbolTable.name(id);
+                writer.append(Integer.toString(id)).append('\t').append(name != null ? name : "").append('\n');
+            }
+            writtenSymbols = size;
+        } catch (IOException e) {
+            LOGGER.error("Couldn't write the ring file symbols: {}", e);
+        }
+    }
+
+    private static void scheduleSymbolFlushes() {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "populator-scanner-ring-symbols");
+            thread.setDaemon(true);
+            thread.setContextClassLoader(null);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(RingFileRecorder::flushSymbols, 1, 1, TimeUnit.SECONDS);
+
+        Thread shutdownFlush = new Thread(RingFileRecorder::flushSymbols, "populator-scanner-ring-symbols-shutdown");
+        shutdownFlush.setContextClassLoader(null);
+        Runtime.getRuntime().addShutdownHook(shutdownFlush);
+    }
+
+}
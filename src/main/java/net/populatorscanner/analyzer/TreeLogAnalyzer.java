@@ -0,0 +1,170 @@
+package net.populatorscanner.analyzer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Offline analysis of log files full of converter call trees, as logged by the agent in the default output mode:
+ * <pre>
+ * java -cp populator-scanner.jar net.populatorscanner.analyzer.TreeLogAnalyzer [--top 20] [--threads N] [--chunk-mb 64] &lt;log file&gt;...
+ * </pre>
+ * Every file is split into chunks that are parsed in parallel on all cores. A chunk parses the trees whose root line starts
+ * inside it, reading past its end to finish the last one; lines of a tree that started in the previous chunk are skipped.
+ * Nothing but the aggregates is kept in memory, so the size of the logs doesn't matter.
+ */
+public final class TreeLogAnalyzer {
+
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    private TreeLogAnalyzer() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int top = 20;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long chunkSize = 64L << 20;
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--top":
+                    top = Integer.parseInt(args[++i]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--chunk-mb":
+                    chunkSize = Long.parseLong(args[++i]) << 20;
+                    break;
+                default:
+                    files.add(Paths.get(args[i]));
+                    break;
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage: TreeLogAnalyzer [--top N] [--threads N] [--chunk-mb N] <log file>...");
+            System.exit(1);
+        }
+
+        System.out.print(analyze(files, top, threads, chunkSize).render());
+    }
+
+    static TreeLogStats analyze(List<Path> files, int top, int threads, long chunkSize) throws IOException, InterruptedException,
+            ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<TreeLogStats>> chunks = new ArrayList<>();
+            for (Path file : files) {
+                long size = Files.size(file);
+                for (long start = 0; start < size; start += chunkSize) {
+                    long chunkStart = start;
+                    long chunkEnd = Math.min(start + chunkSize, size);
+                    chunks.add(executor.submit(() -> analyzeChunk(file, chunkStart, chunkEnd, top)));
+                }
+            }
+
+            TreeLogStats stats = new TreeLogStats(top);
+            for (Future<TreeLogStats> chunk : chunks) {
+                stats.merge(chunk.get());
+            }
+            return stats;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static TreeLogStats analyzeChunk(Path file, long start, long end, int top) throws IOException {
+        TreeLogStats stats = new TreeLogStats(top);
+        TreeLogParser parser = new TreeLogParser(stats, file.getFileName().toString());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // from the byte before the chunk on, a line starting right at the chunk start is complete and belongs to this chunk
+            LineReader reader = new LineReader(channel, start > 0 ? start - 1 : 0);
+            if (start > 0) {
+                // the rest of the line the previous chunk ends in, only its line break when that is the byte before the chunk
+                reader.readLine();
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int depth = TreeLogParser.depthOf(line);
+                if (depth > 0 && parser.inTree()) {
+                    parser.child(line, depth);
+                    continue;
+                }
+
+                parser.finishTree();
+                if (reader.lineStart() >= end) {
+                    break;
+                }
+                if (depth == 0) {
+                    parser.startTree(line, reader.lineStart());
+                }
+            }
+            parser.finishTree();
+        }
+        return stats;
+    }
+
+    /**
+     * UTF-8 lines read from a position of the file, keeping track of where each line started. Splitting at arbitrary byte
+     * offsets is safe as a line break byte never occurs inside a multi-byte character.
+     */
+    private static final class LineReader {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        private long position;
+        private long lineStart;
+
+        private LineReader(FileChannel channel, long position) throws IOException {
+            this.channel = channel;
+            this.position = position;
+            channel.position(position);
+            buffer.flip();
+        }
+
+        private String readLine() throws IOException {
+            line.reset();
+            lineStart = position;
+            while (true) {
+                if (!buffer.hasRemaining()) {
+                    buffer.clear();
+                    int read = channel.read(buffer);
+                    buffer.flip();
+                    if (read <= 0) {
+                        return line.size() > 0 ? decode() : null;
+                    }
+                }
+
+                byte b = buffer.get();
+                position++;
+                if (b == '\n') {
+                    return decode();
+                }
+                line.write(b);
+            }
+        }
+
+        private String decode() {
+            String decoded = new String(line.toByteArray(), StandardCharsets.UTF_8);
+            return decoded.endsWith("\r") ? decoded.substring(0, decoded.length() - 1) : decoded;
+        }
+
+        private long lineStart() {
+            return lineStart;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package net.populatorscanner.analyzer;
+
+import java.util.Arrays;
+
+/**
+ * Rebuilds the trees printed by {@code ConverterCallNode.renderTree()} line by line, without keeping the trees: only the
+ * invocation multiplier of every open level is kept, which is what a node's {@code (🔁N)} marker multiplies its whole subtree
+ * with.
+ */
+final class TreeLogParser {
+
+    static final String CALL_SOURCE_SEPARATOR = " ← ";
+    private static final String ITERATIONS_PREFIX = "(🔁";
+    private static final String DUPLICATE_PREFIX = "(d) ";
+    private static final String ASYNC_PREFIX = "(async) ";
+
+    private final TreeLogStats stats;
+    private final String file;
+
+    private long[] levelInvocations = new long[64];
+    private boolean inTree;
+    private int openLevels;
+    private int maxDepth;
+    private long treeCalls;
+    private String root;
+    private String rootCallSource;
+    private String location;
+
+    TreeLogParser(TreeLogStats stats, String file) {
+        this.stats = stats;
+        this.file = file;
+    }
+
+    /**
+     * @return 0 for a root line, the depth for a child line, -1 for anything else
+     */
+    static int depthOf(String line) {
+        if (!line.contains(CALL_SOURCE_SEPARATOR)) {
+            return -1;
+        }
+
+        int i = 0;
+        while (line.startsWith("│ ", i) || line.startsWith("  ", i)) {
+            i += 2;
+        }
+        if (line.startsWith("├╴", i) || line.startsWith("└╴", i)) {
+            return i / 2 + 1;
+        }
+        return i == 0 && !Character.isWhitespace(line.charAt(0)) ? 0 : -1;
+    }
+
+    boolean inTree() {
+        return inTree;
+    }
+
+    void startTree(String line, long offset) {
+        inTree = true;
+        openLevels = 0;
+        maxDepth = 0;
+        treeCalls = 0;
+        location = file + "@" + offset;
+        node(line, 0);
+        root = description(content(line, 0));
+        int separator = root.indexOf(CALL_SOURCE_SEPARATOR);
+        rootCallSource = separator >= 0 ? root.substring(separator + CALL_SOURCE_SEPARATOR.length()) : "?";
+    }
+
+    void child(String line, int depth) {
+        // a level can only be one deeper than its parent, anything else is a mangled line
+        node(line, Math.min(depth, openLevels));
+    }
+
+    void finishTree() {
+        if (inTree) {
+            stats.treeCompleted(root, rootCallSource, maxDepth, treeCalls, location);
+            inTree = false;
+        }
+    }
+
+    private void node(String line, int depth) {
+        String content = content(line, depth);
+        int iterations = 1;
+        if (content.startsWith(ITERATIONS_PREFIX)) {
+            int end = content.indexOf(") ");
+            if (end > 0) {
+                try {
+                    iterations = Integer.parseInt(content.substring(ITERATIONS_PREFIX.length(), end));
+                } catch (NumberFormatException e) {
+                    iterations = 1;
+                }
+                content = content.substring(end + 2);
+            }
+        }
+        if (content.startsWith(DUPLICATE_PREFIX)) {
+            content = content.substring(DUPLICATE_PREFIX.length());
+        }
+        if (content.startsWith(ASYNC_PREFIX)) {
+            content = content.substring(ASYNC_PREFIX.length());
+        }
+
+        if (depth == levelInvocations.length) {
+            levelInvocations = Arrays.copyOf(levelInvocations, depth * 2);
+        }
+        long invocations = (depth > 0 ? levelInvocations[depth - 1] : 1L) * iterations;
+        levelInvocations[depth] = invocations;
+        openLevels = depth + 1;
+        maxDepth = Math.max(maxDepth, depth + 1);
+        treeCalls += invocations;
+
+        String description = description(content);
+        stats.converterCalled(clazz(description), invocations);
+        if (iterations > 1) {
+            stats.subtreeRepeated(description, iterations, invocations);
+        }
+    }
+
+    private static String content(String line, int depth) {
+        return depth == 0 ? line : line.substring(depth * 2);
+    }
+
+    /**
+     * The node without its timing and truncation suffixes: {@code class<source, target> ← call source}.
+     */
+    private static String description(String content) {
+        int end = content.indexOf(" [", content.indexOf(CALL_SOURCE_SEPARATOR));
+        if (end < 0) {
+            end = content.indexOf(" (truncated ");
+        }
+        return end >= 0 ? content.substring(0, end) : content;
+    }
+
+    private static String clazz(String description) {
+        int end = description.indexOf('<');
+        if (end < 0) {
+            end = description.indexOf(CALL_SOURCE_SEPARATOR);
+        }
+        return end >= 0 ? description.substring(0, end) : description;
+    }
+}
@@ -0,0 +1,137 @@
+package net.populatorscanner.analyzer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Aggregates of the trees found in one chunk of a log file, merged into each other once all chunks are done. Memory grows with
+ * the number of distinct converters and call sources, never with the size of the logs.
+ */
+final class TreeLogStats {
+
+    static final class Counter {
+
+        long trees;
+        long calls;
+        long maxIterations;
+    }
+
+    static final class DeepTree {
+
+        final int depth;
+        final long calls;
+        final String root;
+        final String location;
+
+        DeepTree(int depth, long calls, String root, String location) {
+            this.depth = depth;
+            this.calls = calls;
+            this.root = root;
+            this.location = location;
+        }
+    }
+
+    private static final Comparator<DeepTree> BY_DEPTH = Comparator.comparingInt((DeepTree tree) -> tree.depth)
+            .thenComparingLong(tree -> tree.calls);
+
+    private final int top;
+
+    long trees;
+    long calls;
+    final Map<String, Counter> callsPerConverter = new HashMap<>();
+    final Map<String, Counter> repeatedSubtrees = new HashMap<>();
+    final Map<String, Counter> callsPerRootCallSource = new HashMap<>();
+    final PriorityQueue<DeepTree> deepestTrees = new PriorityQueue<>(BY_DEPTH);
+
+    TreeLogStats(int top) {
+        this.top = top;
+    }
+
+    void converterCalled(String clazz, long invocations) {
+        calls += invocations;
+        callsPerConverter.computeIfAbsent(clazz, key -> new Counter()).calls += invocations;
+    }
+
+    void subtreeRepeated(String description, int iterations, long invocations) {
+        Counter counter = repeatedSubtrees.computeIfAbsent(description, key -> new Counter());
+        counter.trees++;
+        counter.calls += invocations;
+        counter.maxIterations = Math.max(counter.maxIterations, iterations);
+    }
+
+    void treeCompleted(String root, String rootCallSource, int depth, long treeCalls, String location) {
+        trees++;
+        Counter counter = callsPerRootCallSource.computeIfAbsent(rootCallSource, key -> new Counter());
+        counter.trees++;
+        counter.calls += treeCalls;
+        offerDeepTree(new DeepTree(depth, treeCalls, root, location));
+    }
+
+    private void offerDeepTree(DeepTree tree) {
+        if (deepestTrees.size() < top) {
+            deepestTrees.add(tree);
+        } else if (BY_DEPTH.compare(tree, deepestTrees.peek()) > 0) {
+            deepestTrees.poll();
+            deepestTrees.add(tree);
+        }
+    }
+
+    void merge(TreeLogStats other) {
+        trees += other.trees;
+        calls += other.calls;
+        mergeCounters(callsPerConverter, other.callsPerConverter);
+        mergeCounters(repeatedSubtrees, other.repeatedSubtrees);
+        mergeCounters(callsPerRootCallSource, other.callsPerRootCallSource);
+        for (DeepTree tree : other.deepestTrees) {
+            offerDeepTree(tree);
+        }
+    }
+
+    private static void mergeCounters(Map<String, Counter> into, Map<String, Counter> from) {
+        for (Map.Entry<String, Counter> entry : from.entrySet()) {
+            Counter counter = into.computeIfAbsent(entry.getKey(), key -> new Counter());
+            counter.trees += entry.getValue().trees;
+            counter.calls += entry.getValue().calls;
+            counter.maxIterations = Math.max(counter.maxIterations, entry.getValue().maxIterations);
+        }
+    }
+
+    String render() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(trees).append(" trees, ").append(calls).append(" converter/populator calls\n");
+
+        sb.append("\nTop converters by calls:\n");
+        for (Map.Entry<String, Counter> entry : topBy(callsPerConverter, Comparator.comparingLong(counter -> counter.calls))) {
+            sb.append(String.format("%12d  %s%n", entry.getValue().calls, entry.getKey()));
+        }
+
+        sb.append("\nDeepest trees:\n");
+        List<DeepTree> deepest = new ArrayList<>(deepestTrees);
+        deepest.sort(BY_DEPTH.reversed());
+        for (DeepTree tree : deepest) {
+            sb.append(String.format("%5d levels %10d calls  %s  (%s)%n", tree.depth, tree.calls, tree.root, tree.location));
+        }
+
+        sb.append("\nMost repeated subtrees:\n");
+        for (Map.Entry<String, Counter> entry : topBy(repeatedSubtrees, Comparator.comparingLong(counter -> counter.maxIterations))) {
+            sb.append(String.format("%8d max iterations %12d calls in %d places  %s%n", entry.getValue().maxIterations,
+                    entry.getValue().calls, entry.getValue().trees, entry.getKey()));
+        }
+
+        sb.append("\nCalls per root call source:\n");
+        for (Map.Entry<String, Counter> entry : topBy(callsPerRootCallSource, Comparator.comparingLong(counter -> counter.calls))) {
+            sb.append(String.format("%12d calls in %8d trees  %s%n", entry.getValue().calls, entry.getValue().trees, entry.getKey()));
+        }
+        return sb.toString();
+    }
+
+    private List<Map.Entry<String, Counter>> topBy(Map<String, Counter> counters, Comparator<Counter> order) {
+        List<Map.Entry<String, Counter>> sorted = new ArrayList<>(counters.entrySet());
+        sorted.sort(Map.Entry.<String, Counter>comparingByValue(order).reversed());
+        return sorted.subList(0, Math.min(top, sorted.size()));
+    }
+}
@@ -20,6 +20,18 @@ public class AgentLoggerFacade {
         loggerAdapter.log(logLevel, pattern, args);
     }
 
+    public boolean isEnabled(AgentLogLevel logLevel) {
+        return loggerAdapter.isEnabled(logLevel);
+    }
+
+    public boolean isDebugEnabled() {
+        return isEnabled(DEBUG);
+    }
+
+    public boolean isInfoEnabled() {
+        return isEnabled(INFO);
+    }
+
     public void debug(String pattern, Object... args) {
         log(DEBUG, pattern, args);
     }
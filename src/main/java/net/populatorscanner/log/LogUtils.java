@@ -1,5 +1,6 @@
 package net.populatorscanner.log;
 
+import java.util.Locale;
 import java.util.Objects;
 
 public final class LogUtils {
@@ -28,6 +29,20 @@ public final class LogUtils {
         return fqcn;
     }
 
+    public static String formatNanos(long nanos) {
+        return String.format(Locale.ROOT, "%.3f ms", nanos / 1_000_000.0);
+    }
+
+    public static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format(Locale.ROOT, "%.1f KiB", bytes / 1024.0);
+        }
+        return String.format(Locale.ROOT, "%.1f MiB", bytes / (1024.0 * 1024.0));
+    }
+
     public static StackTraceElement getCallSource(StackTraceElement[] stackTrace) {
         StackTraceElement top = null;
         for (StackTraceElement stackTraceElement : stackTrace) {
@@ -12,6 +12,11 @@ public class ConsoleAdapter implements LoggerAdapter {
             + ParameterFormatter.format(pattern, args));
     }
 
+    @Override
+    public boolean isEnabled(AgentLogLevel logLevel) {
+        return true;
+    }
+
     @Override
     public LoggerAdapter init() {
         return this;
@@ -4,6 +4,7 @@ import net.populatorscanner.log.AgentLogLevel;
 
 public interface LoggerAdapter {
     void log(AgentLogLevel logLevel, String pattern, Object... args);
+    boolean isEnabled(AgentLogLevel logLevel);
     LoggerAdapter init();
     LoggerAdapter init(ClassLoader classLoader);
 }
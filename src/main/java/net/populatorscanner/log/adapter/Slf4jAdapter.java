@@ -2,26 +2,45 @@ package net.populatorscanner.log.adapter;
 
 import net.populatorscanner.log.AgentLogLevel;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Locale;
 
 public class Slf4jAdapter implements LoggerAdapter {
 
     private static final String LOGGER_NAME = "PopulatorScannerAgent";
 
+    private static final MethodType LOG_METHOD_TYPE = MethodType.methodType(void.class, String.class, Object[].class);
+    private static final MethodType IS_ENABLED_METHOD_TYPE = MethodType.methodType(boolean.class);
+
     private volatile Object loggerInstance;
 
+    // bound to loggerInstance and indexed by AgentLogLevel.ordinal(), resolved once in init
+    private volatile MethodHandle[] logHandles;
+    private volatile MethodHandle[] isEnabledHandles;
+
     @Override
     public void log(AgentLogLevel logLevel, String pattern, Object... args) {
-       String methodName = logLevel.name().toLowerCase();
         try {
-            Method logMethod = loggerInstance.getClass().getMethod(methodName, String.class, Object[].class);
-            logMethod.invoke(loggerInstance, pattern, args);
-        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            logHandles[logLevel.ordinal()].invokeExact(pattern, args);
+        } catch (Throwable e) {
             e.printStackTrace();
         }
     }
 
+    @Override
+    public boolean isEnabled(AgentLogLevel logLevel) {
+        try {
+            return (boolean) isEnabledHandles[logLevel.ordinal()].invokeExact();
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
     @Override
     public LoggerAdapter init() {
         return init(null);
@@ -31,14 +50,33 @@ public class Slf4jAdapter implements LoggerAdapter {
     public LoggerAdapter init(ClassLoader classLoader) {
         try {
             Class<?> factoryClass;
+            Class<?> loggerClass;
             if (classLoader == null) {
                 factoryClass = Class.forName("org.slf4j.LoggerFactory");
+                loggerClass = Class.forName("org.slf4j.Logger");
             } else {
                 factoryClass = classLoader.loadClass("org.slf4j.LoggerFactory");
+                loggerClass = classLoader.loadClass("org.slf4j.Logger");
             }
             Method getLoggerMethod = factoryClass.getDeclaredMethod("getLogger", String.class);
             getLoggerMethod.setAccessible(true);
-            this.loggerInstance = getLoggerMethod.invoke(null, LOGGER_NAME);
+            Object loggerInstance = getLoggerMethod.invoke(null, LOGGER_NAME);
+
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            AgentLogLevel[] logLevels = AgentLogLevel.values();
+            MethodHandle[] logHandles = new MethodHandle[logLevels.length];
+            MethodHandle[] isEnabledHandles = new MethodHandle[logLevels.length];
+            for (AgentLogLevel logLevel : logLevels) {
+                String methodName = logLevel.name().toLowerCase(Locale.ROOT);
+                String isEnabledMethodName = "is" + logLevel.name().charAt(0) + methodName.substring(1) + "Enabled";
+                logHandles[logLevel.ordinal()] = lookup.findVirtual(loggerClass, methodName, LOG_METHOD_TYPE).bindTo(loggerInstance);
+                isEnabledHandles[logLevel.ordinal()] = lookup.findVirtual(loggerClass, isEnabledMethodName, IS_ENABLED_METHOD_TYPE)
+                        .bindTo(loggerInstance);
+            }
+
+            this.loggerInstance = loggerInstance;
+            this.logHandles = logHandles;
+            this.isEnabledHandles = isEnabledHandles;
             return this;
         } catch (ClassNotFoundException | NoSuchMethodException | InvocationTargetException | IllegalAccessException e) {
             e.printStackTrace();
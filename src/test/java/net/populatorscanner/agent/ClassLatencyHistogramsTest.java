@@ -0,0 +1,68 @@
+package net.populatorscanner.agent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClassLatencyHistogramsTest {
+
+    private static final long MILLI = 1_000_000L;
+    private static final long SECOND = 1_000_000_000L;
+
+    @AfterEach
+    void reset() {
+        ClassLatencyHistograms.reset();
+    }
+
+    @Test
+    void everyValueIsWithinItsBucket() {
+        for (int exponent = 0; exponent < 63; exponent++) {
+            long power = 1L << exponent;
+            assertWithinBucket(power - 1);
+            assertWithinBucket(power);
+            assertWithinBucket(power + 1);
+        }
+        assertWithinBucket(Long.MAX_VALUE - 1);
+        assertWithinBucket(Long.MAX_VALUE);
+    }
+
+    @Test
+    void bucketsAreContiguous() {
+        int last = ClassLatencyHistograms.bucket(Long.MAX_VALUE);
+        for (int bucket = 0; bucket < last; bucket++) {
+            long upperBound = ClassLatencyHistograms.bucketUpperBound(bucket);
+            assertEquals(bucket, ClassLatencyHistograms.bucket(upperBound), "upper bound of bucket " + bucket);
+            assertEquals(bucket + 1, ClassLatencyHistograms.bucket(upperBound + 1), "value past bucket " + bucket);
+        }
+        assertEquals(Long.MAX_VALUE, ClassLatencyHistograms.bucketUpperBound(last));
+    }
+
+    @Test
+    void percentilesRankTheRecordedLatencies() {
+        int classId = SymbolTable.intern("a.LatencyTestConverter");
+        for (int i = 0; i < 99; i++) {
+            ClassLatencyHistograms.recordNanos(classId, MILLI);
+        }
+        ClassLatencyHistograms.recordNanos(classId, SECOND);
+
+        ClassLatencyHistograms.Snapshot snapshot = ClassLatencyHistograms.snapshot(classId);
+        long milliBound = ClassLatencyHistograms.bucketUpperBound(ClassLatencyHistograms.bucket(MILLI));
+        assertEquals(100, snapshot.invocations);
+        assertEquals(99 * MILLI + SECOND, snapshot.totalNanos);
+        assertEquals(SECOND, snapshot.maxNanos);
+        assertEquals(milliBound, snapshot.p50Nanos());
+        assertEquals(milliBound, snapshot.p99Nanos());
+        // the bucket of the slowest call reaches past it, the percentile is capped at the max
+        assertEquals(SECOND, snapshot.p999Nanos());
+    }
+
+    private static void assertWithinBucket(long nanos) {
+        int bucket = ClassLatencyHistograms.bucket(nanos);
+        assertTrue(ClassLatencyHistograms.bucketUpperBound(bucket) >= nanos, nanos + " above the bound of bucket " + bucket);
+        if (bucket > 0) {
+            assertTrue(ClassLatencyHistograms.bucketUpperBound(bucket - 1) < nanos, nanos + " fits into bucket " + (bucket - 1));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package net.populatorscanner.agent;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConverterCallNodeTest {
+
+    private static final int CALLS = 7;
+
+    @Test
+    void foldKeepsTheTimeAndInvocationsOfTheUnfoldedTree() {
+        ConverterCallNode folded = tree(true);
+        ConverterCallNode unfolded = tree(false);
+
+        assertEquals(1, folded.childCalls.size());
+        assertEquals(CALLS, unfolded.childCalls.size());
+
+        ConverterCallNode child = folded.childCalls.get(0);
+        ConverterCallNode grandchild = child.childCalls.get(0);
+        assertEquals(CALLS, child.iterations);
+        assertEquals(1, grandchild.iterations);
+
+        long childNanos = 0;
+        long childSelfNanos = 0;
+        long grandchildNanos = 0;
+        long grandchildSelfNanos = 0;
+        for (ConverterCallNode unfoldedChild : unfolded.childCalls) {
+            childNanos += unfoldedChild.totalNanos;
+            childSelfNanos += unfoldedChild.selfNanos();
+            grandchildNanos += unfoldedChild.childCalls.get(0).totalNanos;
+            grandchildSelfNanos += unfoldedChild.childCalls.get(0).selfNanos();
+        }
+        assertEquals(childNanos, child.cumulativeNanos());
+        assertEquals(childSelfNanos, child.cumulativeSelfNanos());
+        assertEquals(grandchildNanos, grandchild.cumulativeNanos());
+        assertEquals(grandchildSelfNanos, grandchild.cumulativeSelfNanos());
+
+        assertEquals(unfolded.totalNanos, folded.totalNanos);
+        assertEquals(unfolded.selfNanos(), folded.selfNanos());
+    }
+
+    @Test
+    void childOfAFoldedCallShowsItsCumulativeTime() {
+        ConverterCallNode grandchild = tree(true).childCalls.get(0).childCalls.get(0);
+        assertEquals(1, grandchild.iterations);
+        assertTrue(grandchild.toString().contains(", all iterations "), grandchild.toString());
+    }
+
+    @Test
+    void differentSubtreesAreNotFolded() {
+        ConverterCallNode root = node(1, null, 0);
+        ConverterCallNode first = node(2, root, 0);
+        node(3, first, 0).complete(10);
+        first.complete(20);
+        assertEquals(0, first.foldIntoPreviousSibling());
+
+        ConverterCallNode second = node(2, root, 20);
+        node(4, second, 20).complete(30);
+        second.complete(40);
+        assertEquals(0, second.foldIntoPreviousSibling());
+
+        assertEquals(2, root.childCalls.size());
+        assertFalse(first.deepEquals(second));
+    }
+
+    /**
+     * A root calling the same child {@code CALLS} times, each child calling one grandchild, with a different duration on
+     * every call.
+     */
+    private static ConverterCallNode tree(boolean fold) {
+        ConverterCallNode root = node(1, null, 0);
+        long nanos = 0;
+        for (int i = 0; i < CALLS; i++) {
+            ConverterCallNode child = node(2, root, nanos);
+            ConverterCallNode grandchild = node(3, child, nanos + i);
+            grandchild.complete(nanos + i + 10 * (i + 1));
+            nanos += 100 * (i + 1);
+            child.complete(nanos);
+            if (fold) {
+                assertEquals(i > 0 ? 2 : 0, child.foldIntoPreviousSibling());
+            }
+        }
+        root.complete(nanos + 5);
+        return root;
+    }
+
+    private static ConverterCallNode node(int classId, ConverterCallNode parentCall, long startNanos) {
+        ConverterCallNode node = new ConverterCallNode(SymbolTable.intern("a.C" + classId), 0, 0, 0);
+        node.startNanos = startNanos;
+        if (parentCall != null) {
+            node.parentCall = parentCall;
+            parentCall.childCalls.add(node);
+        }
+        return node;
+    }
+}
@@ -0,0 +1,153 @@
+package net.populatorscanner.agent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Drives {@code pre} and {@code post} through scripted call sequences on one thread and compares the trees built in its
+ * {@link Agent.WorkContext}, identical sibling subtrees folded, with the expected shape.
+ */
+class ConverterCallsInterceptorTest {
+
+    private final Object[] arguments = {"source"};
+    private final Deque<Agent.WorkContext> enters = new ArrayDeque<>();
+    private ConverterCallNode rootCall;
+
+    @BeforeEach
+    void aggregate() {
+        // keep the completed trees out of the log; they are rendered later on the renderer thread, so the mode is not reset
+        OutputMode.set(OutputMode.AGGREGATE);
+    }
+
+    @AfterEach
+    void reset() {
+        Agent.WorkContext.remove();
+    }
+
+    @Test
+    void loopOverIdenticalSubtreesKeepsOne() throws Exception {
+        enter("A");
+        for (int i = 0; i < 3; i++) {
+            enter("B");
+            call("C");
+            call("D");
+            exit();
+        }
+        call("E");
+        exit();
+        assertEquals("A(3×B(C, D), E)", shape(rootCall));
+    }
+
+    @Test
+    void nestedLoopsFoldOnEveryLevel() throws Exception {
+        enter("A");
+        for (int i = 0; i < 2; i++) {
+            enter("B");
+            for (int j = 0; j < 3; j++) {
+                call("C");
+            }
+            exit();
+        }
+        exit();
+        assertEquals("A(2×B(3×C))", shape(rootCall));
+    }
+
+    @Test
+    void differentSubtreesStayApart() throws Exception {
+        enter("A");
+        enter("B");
+        call("C");
+        exit();
+        enter("B");
+        call("D");
+        exit();
+        exit();
+        assertEquals("A(B(C), B(D))", shape(rootCall));
+    }
+
+    @Test
+    void alternatingCallsAreNotFolded() throws Exception {
+        enter("A");
+        for (int i = 0; i < 3; i++) {
+            call("B");
+            call("C");
+        }
+        exit();
+        assertEquals("A(B, C, B, C, B, C)", shape(rootCall));
+    }
+
+    @Test
+    void loopEndingInADifferentSubtree() throws Exception {
+        enter("R");
+        for (int i = 0; i < 4; i++) {
+            enter("A");
+            enter("B");
+            call("C");
+            call("C");
+            exit();
+            call("D");
+            exit();
+        }
+        call("Z");
+        exit();
+        assertEquals("R(4×A(B(2×C), D), Z)", shape(rootCall));
+
+        enter("A");
+        for (int i = 0; i < 3; i++) {
+            enter("B");
+            call("C");
+            exit();
+        }
+        enter("B");
+        call("D");
+        exit();
+        exit();
+        assertEquals("A(3×B(C), B(D))", shape(rootCall));
+    }
+
+    private void enter(String name) throws Exception {
+        int classId = SymbolTable.intern("a.b.c." + name);
+        Agent.WorkContext ctx = Agent.ConverterCallsInterceptor.pre(arguments, this, "a.b.c." + name, "convert", classId, 0L);
+        if (enters.isEmpty()) {
+            rootCall = ctx.lastRootCall;
+        }
+        enters.push(ctx);
+    }
+
+    private void exit() throws Exception {
+        Agent.WorkContext ctx = enters.pop();
+        Agent.ConverterCallsInterceptor.post(arguments, ctx, 0L, 0);
+        if (enters.isEmpty()) {
+            assertNull(ctx.lastRootCall);
+        }
+    }
+
+    private void call(String name) throws Exception {
+        enter(name);
+        exit();
+    }
+
+    private static String shape(ConverterCallNode node) {
+        String name = SymbolTable.name(node.classId);
+        StringBuilder sb = new StringBuilder();
+        if (node.iterations > 1) {
+            sb.append(node.iterations).append('×');
+        }
+        sb.append(name.substring(name.lastIndexOf('.') + 1));
+        if (!node.childCalls.isEmpty()) {
+            sb.append('(');
+            for (int i = 0; i < node.childCalls.size(); i++) {
+                sb.append(i > 0 ? ", " : "").append(shape(node.childCalls.get(i)));
+            }
+            sb.append(')');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,77 @@
+package net.populatorscanner.analyzer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TreeLogAnalyzerTest {
+
+    private static final int TREES = 6;
+
+    private Path log;
+    private final List<Long> rootLineOffsets = new ArrayList<>();
+
+    @BeforeEach
+    void writeLog() throws Exception {
+        // tree i is i levels deep and only calls a.Ci, so no two trees or converters tie in any ranking
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= TREES; i++) {
+            sb.append("[DEBUG] [populator-scanner-renderer] (Sat Oct 17 22:10:06 UTC 2026) \n");
+            rootLineOffsets.add((long) sb.toString().getBytes(StandardCharsets.UTF_8).length);
+            sb.append("a.C").append(i).append("<S, T> ← Root.java:").append(i).append(" [total 1.000 ms, self 0.500 ms]\n");
+            for (int depth = 1; depth < i; depth++) {
+                for (int indent = 1; indent < depth; indent++) {
+                    sb.append("  ");
+                }
+                sb.append("└╴a.C").append(i).append("<S, T> ← Child.java:").append(depth).append(" [total 0.500 ms, self 0.500 ms]\n");
+            }
+            sb.append('\n');
+        }
+        log = Files.createTempFile("tree-log", ".log");
+        Files.write(log, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    void deleteLog() throws Exception {
+        Files.deleteIfExists(log);
+    }
+
+    @Test
+    void singleChunkSeesEveryTree() throws Exception {
+        String single = analyze(Long.MAX_VALUE);
+
+        assertTrue(single.startsWith(TREES + " trees, 21 converter/populator calls"), single);
+    }
+
+    @Test
+    void rootLineOnChunkBoundaryIsKept() throws Exception {
+        String single = analyze(Long.MAX_VALUE);
+
+        for (long offset : rootLineOffsets.subList(1, rootLineOffsets.size())) {
+            assertEquals(single, analyze(offset), "chunks of " + offset + " bytes");
+        }
+    }
+
+    @Test
+    void resultDoesNotDependOnChunkSize() throws Exception {
+        String single = analyze(Long.MAX_VALUE);
+
+        for (long chunkSize = 1; chunkSize <= 200; chunkSize += 7) {
+            assertEquals(single, analyze(chunkSize), "chunks of " + chunkSize + " bytes");
+        }
+    }
+
+    private String analyze(long chunkSize) throws Exception {
+        return TreeLogAnalyzer.analyze(Collections.singletonList(log), 100, 2, chunkSize).render();
+    }
+}